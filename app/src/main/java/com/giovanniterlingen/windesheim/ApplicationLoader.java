@@ -63,35 +63,30 @@ public class ApplicationLoader extends Application {
     public static volatile Context applicationContext;
     public static volatile Handler applicationHandler;
     private static volatile boolean applicationInited = false;
-    private static NotificationThread notificationThread;
 
     static {
         intentFilter = new IntentFilter();
-        intentFilter.addAction(Intent.ACTION_TIME_TICK);
         intentFilter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
         intentFilter.addAction(Intent.ACTION_TIME_CHANGED);
         intentFilter.addAction(Intent.ACTION_DATE_CHANGED);
     }
 
-    public static void startPushService() {
-        Intent intent = new Intent(applicationContext, NotificationService.class);
-        if (Build.VERSION.SDK_INT >= 26) {
-            applicationContext.startForegroundService(intent);
-        } else {
-            applicationContext.startService(intent);
-        }
-    }
-
     public static void postInitApplication() {
         if (applicationInited) {
             return;
         }
         applicationInited = true;
 
-        if (DatabaseController.getInstance().hasSchedules()) {
-            restartNotificationThread();
-            startFetcher();
-        }
+        // Opening the database may take a while, keep it off the main thread
+        DatabaseController.executeInBackground(new Runnable() {
+            @Override
+            public void run() {
+                if (DatabaseController.getInstance().hasSchedules()) {
+                    NotificationScheduler.init();
+                    startFetcher();
+                }
+            }
+        });
     }
 
     private static void startFetcher() {
@@ -113,25 +108,8 @@ public class ApplicationLoader extends Application {
         dispatcher.mustSchedule(fetcherJob);
     }
 
-    public static void restartNotificationThread() {
-        if (notificationThread != null) {
-            notificationThread.interrupt();
-            NotificationUtils.getInstance().clearNotification();
-        }
-        notificationThread = new NotificationThread();
-        notificationThread.start();
-    }
-
-    public static void notifyDateChanged() {
-        if (notificationThread != null) {
-            notificationThread.notifyDateChanged();
-        }
-    }
-
-    public static void notifyMinuteChanged() {
-        if (notificationThread != null) {
-            notificationThread.notifyMinuteChanged();
-        }
+    public static void rescheduleNotifications() {
+        NotificationScheduler.reschedule();
     }
 
     public static boolean isConnected() {
@@ -162,7 +140,7 @@ public class ApplicationLoader extends Application {
         NotificationUtils.getInstance().initNotificationChannels();
 
         registerReceiver(new TimeReceiver(), intentFilter);
-        startPushService();
+        postInitApplication();
 
         setDarkMode();
     }
@@ -37,9 +37,9 @@ public class BootReceiver extends BroadcastReceiver {
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction()) ||
-                "com.giovanniterlingen.windesheim.start".equals(intent.getAction())) {
-            ApplicationLoader.startPushService();
+        if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
+            // Alarms do not survive a reboot
+            ApplicationLoader.postInitApplication();
         }
     }
 }
\ No newline at end of file
@@ -63,6 +63,9 @@ public class Constants {
     public static final String TELEMETRY_KEY_WEEK_COUNT_CHANGED = "week_count_changed";
     public static final String TELEMETRY_PROPERTY_INTRO_FINISHED = "intro_finished";
     public static final String TELEMETRY_PROPERTY_SCHEDULE_CHANGE_NOTIFICATION = "schedule_change_notification";
+    public static final String TELEMETRY_KEY_LESSONS_FETCHED = "lessons_fetched";
+    public static final String TELEMETRY_PROPERTY_BYTES_ON_WIRE = "bytes_on_wire";
+    public static final String TELEMETRY_PROPERTY_BYTES_DECODED = "bytes_decoded";
 
     public static final int NOTIFICATION_TYPE_1_HOUR = 2;
     public static final int NOTIFICATION_TYPE_30_MIN = 3;
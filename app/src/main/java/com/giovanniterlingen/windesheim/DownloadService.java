@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2019 Giovanni Terlingen
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ **/
+package com.giovanniterlingen.windesheim;
+
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.IBinder;
+
+import com.giovanniterlingen.windesheim.controllers.DownloadQueue;
+import com.giovanniterlingen.windesheim.utils.NotificationUtils;
+
+/**
+ * A schedule app for students and teachers of Windesheim
+ * <p>
+ * Keeps the process in the foreground while the download queue is not empty, so downloads
+ * are not killed when the app is left. Shows the progress of the queue meanwhile.
+ *
+ * @author Giovanni Terlingen
+ */
+public class DownloadService extends Service
+        implements NotificationCenter.NotificationCenterDelegate {
+
+    public static void start() {
+        Context context = ApplicationLoader.applicationContext;
+        Intent intent = new Intent(context, DownloadService.class);
+        if (Build.VERSION.SDK_INT >= 26) {
+            context.startForegroundService(intent);
+        } else {
+            context.startService(intent);
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        NotificationCenter.getInstance().addObserver(this, NotificationCenter.downloadUpdated);
+        NotificationCenter.getInstance().addObserver(this,
+                NotificationCenter.downloadQueueUpdated);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        DownloadQueue queue = DownloadQueue.getInstance();
+        // Has to be called for every start, even when there turns out to be nothing to do
+        startForeground(NotificationUtils.DOWNLOAD_NOTIFICATION_ID, NotificationUtils
+                .getInstance().createDownloadNotification(Math.max(queue.getDownloadCount(), 1),
+                        queue.getAverageProgress()));
+        stopWhenDone();
+        // A killed process loses its queue, there is nothing to continue
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        NotificationCenter.getInstance().removeObserver(this, NotificationCenter.downloadUpdated);
+        NotificationCenter.getInstance().removeObserver(this,
+                NotificationCenter.downloadQueueUpdated);
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    @Override
+    public void didReceivedNotification(int id, Object... args) {
+        if (stopWhenDone()) {
+            return;
+        }
+        DownloadQueue queue = DownloadQueue.getInstance();
+        NotificationUtils.getInstance().updateDownloadNotification(queue.getDownloadCount(),
+                queue.getAverageProgress());
+    }
+
+    private boolean stopWhenDone() {
+        if (DownloadQueue.getInstance().getDownloadCount() > 0) {
+            return false;
+        }
+        stopForeground(true);
+        stopSelf();
+        return true;
+    }
+}
@@ -44,10 +44,14 @@ public class NotificationCenter {
     private static int totalEvents = 1;
 
     public static final int scheduleReload = totalEvents++;
+    public static final int scheduleChanged = totalEvents++;
     public static final int downloadPending = totalEvents++;
     public static final int downloadUpdated = totalEvents++;
     public static final int downloadFinished = totalEvents++;
     public static final int downloadCancelled = totalEvents++;
+    public static final int downloadQueueUpdated = totalEvents++;
+    public static final int folderDownloadUpdated = totalEvents++;
+    public static final int folderDownloadFailed = totalEvents++;
     private static volatile NotificationCenter Instance = null;
     private final SparseArray<ArrayList<Object>> observers = new SparseArray<>();
     private final SparseArray<ArrayList<Object>> removeAfterBroadcast = new SparseArray<>();
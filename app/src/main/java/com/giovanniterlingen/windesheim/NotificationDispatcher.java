@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2019 Giovanni Terlingen
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ **/
+package com.giovanniterlingen.windesheim;
+
+import com.giovanniterlingen.windesheim.utils.TimeUtils;
+
+import java.util.Date;
+
+/**
+ * A schedule app for students and teachers of Windesheim
+ * <p>
+ * Decides which entries of the {@link NotificationTimeline} of today are due and when the
+ * next alarms should go off. Posting notifications and setting alarms is left to a
+ * {@link Target}, so the same decisions can be simulated without a device.
+ *
+ * @author Giovanni Terlingen
+ */
+class NotificationDispatcher {
+
+    private final Target target;
+    private NotificationTimeline timeline;
+    private long dispatchedUntil;
+    private long lastReminderTime;
+
+    NotificationDispatcher(Target target) {
+        this.target = target;
+    }
+
+    /**
+     * Sets the alarms when the process starts, without touching what is shown. When the
+     * process was started by an alarm, the alarm dispatches its own entries afterwards.
+     */
+    void init(long now) {
+        if (timeline == null) {
+            update(now, false, 0);
+        }
+    }
+
+    /**
+     * Rebuilds the timeline because the lessons or settings changed
+     */
+    void rebuild(long now) {
+        update(now, true, 0);
+    }
+
+    /**
+     * Dispatches the due entries after an alarm went off
+     *
+     * @param alarmTime the time the alarm was set for
+     */
+    void dispatch(long now, long alarmTime) {
+        update(now, false, alarmTime);
+    }
+
+    /**
+     * @param rebuild   whether the lessons or settings changed since the timeline was built
+     * @param alarmTime the time the alarm was set for, or 0 when not called by an alarm
+     */
+    private void update(long now, boolean rebuild, long alarmTime) {
+        int dayNumber = TimeUtils.getDayNumber(new Date(now));
+        if (rebuild || timeline == null) {
+            // Whatever was due before was handled before the change or before the process died
+            dispatchedUntil = now;
+        }
+        if (rebuild || timeline == null || timeline.getDayNumber() != dayNumber) {
+            timeline = target.buildTimeline(now);
+        }
+        long from = dispatchedUntil;
+        if (alarmTime > 0) {
+            // The alarm might have started the process, its own entries are still due
+            from = Math.min(from, alarmTime - 1);
+        }
+
+        NotificationTimeline.Entry state = timeline.getStateAt(now);
+        if (state != null && state.type == NotificationTimeline.TYPE_COUNTDOWN) {
+            target.showCountdown(state.text);
+        } else if (state != null && state.time > from) {
+            target.clearNotification(false);
+        } else if (rebuild) {
+            // A countdown of the previous settings may still be shown, a reminder stays
+            target.clearNotification(true);
+        }
+        NotificationTimeline.Entry reminder = null;
+        boolean lessonStarted = false;
+        for (int i = timeline.indexAfter(from); i < timeline.size(); i++) {
+            NotificationTimeline.Entry entry = timeline.get(i);
+            if (entry.time > now) {
+                break;
+            }
+            if (entry.type == NotificationTimeline.TYPE_REMINDER &&
+                    entry.time > lastReminderTime) {
+                reminder = entry;
+            } else if (entry.type == NotificationTimeline.TYPE_LESSON_START) {
+                lessonStarted = true;
+            }
+        }
+        dispatchedUntil = Math.max(dispatchedUntil, now);
+
+        if (reminder != null) {
+            lastReminderTime = reminder.time;
+            target.showReminder(reminder.text);
+        }
+        if (lessonStarted) {
+            target.lessonStarted();
+        }
+
+        int notificationType = timeline.getNotificationType();
+        if (notificationType == Constants.NOTIFICATION_TYPE_OFF ||
+                notificationType == Constants.NOTIFICATION_TYPE_NOT_SET) {
+            // Nothing is shown, so there is no reason to wake up at all
+            target.setUpdateAlarm(-1, false);
+            target.setReminderAlarm(-1);
+            return;
+        }
+        long nextUpdate = timeline.getNextTime(now, false);
+        if (nextUpdate == -1) {
+            // Tomorrow's reminders can only be set once the next day has started
+            target.setUpdateAlarm(TimeUtils.getStartOfNextDay(now), timeline.hasReminders());
+        } else {
+            target.setUpdateAlarm(nextUpdate, false);
+        }
+        target.setReminderAlarm(timeline.getNextTime(now, true));
+    }
+
+    interface Target {
+
+        /**
+         * @return the timeline of the day the given time is on
+         */
+        NotificationTimeline buildTimeline(long now);
+
+        void showCountdown(String text);
+
+        void showReminder(String text);
+
+        /**
+         * @param ongoingOnly whether a reminder that is shown should stay
+         */
+        void clearNotification(boolean ongoingOnly);
+
+        void lessonStarted();
+
+        /**
+         * @param time   the time to dispatch the next entries at, or -1 to cancel the alarm
+         * @param wakeup whether the device should wake up for it
+         */
+        void setUpdateAlarm(long time, boolean wakeup);
+
+        /**
+         * @param time the time of the next reminder, or -1 to cancel the alarm
+         */
+        void setReminderAlarm(long time);
+    }
+}
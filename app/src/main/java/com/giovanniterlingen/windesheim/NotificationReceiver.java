@@ -24,45 +24,26 @@
  **/
 package com.giovanniterlingen.windesheim;
 
-import android.app.Notification;
-import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
-import android.os.Build;
-import android.os.IBinder;
-
-import com.giovanniterlingen.windesheim.utils.NotificationUtils;
 
 /**
  * A schedule app for students and teachers of Windesheim
  *
  * @author Giovanni Terlingen
  */
-public class NotificationService extends Service {
-
-    @Override
-    public void onCreate() {
-        ApplicationLoader.postInitApplication();
-    }
-
-    @Override
-    public int onStartCommand(Intent intent, int flags, int startId) {
-        if (Build.VERSION.SDK_INT >= 26) {
-            NotificationUtils.getInstance().initNotificationChannels();
-
-            Notification notification = NotificationUtils.getInstance().getServiceNotification();
-            this.startForeground(NotificationUtils.SERVICE_NOTIFICATION_ID, notification);
-        }
-        return START_STICKY;
-    }
-
-    @Override
-    public IBinder onBind(Intent intent) {
-        return null;
-    }
+public class NotificationReceiver extends BroadcastReceiver {
 
     @Override
-    public void onDestroy() {
-        Intent intent = new Intent("com.giovanniterlingen.windesheim.start");
-        sendBroadcast(intent);
+    public void onReceive(Context context, Intent intent) {
+        final long alarmTime = intent.getLongExtra(NotificationScheduler.EXTRA_ALARM_TIME, 0);
+        final PendingResult result = goAsync();
+        NotificationScheduler.dispatch(alarmTime, new Runnable() {
+            @Override
+            public void run() {
+                result.finish();
+            }
+        });
     }
-}
\ No newline at end of file
+}
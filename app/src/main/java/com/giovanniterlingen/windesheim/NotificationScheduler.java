@@ -0,0 +1,279 @@
+/**
+ * Copyright (c) 2019 Giovanni Terlingen
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ **/
+package com.giovanniterlingen.windesheim;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.os.Build;
+import android.text.format.DateUtils;
+
+import androidx.preference.PreferenceManager;
+
+import com.giovanniterlingen.windesheim.controllers.DatabaseController;
+import com.giovanniterlingen.windesheim.models.Lesson;
+import com.giovanniterlingen.windesheim.utils.NotificationUtils;
+import com.giovanniterlingen.windesheim.utils.TimeUtils;
+
+import java.text.NumberFormat;
+import java.util.Date;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A schedule app for students and teachers of Windesheim
+ * <p>
+ * Lets a {@link NotificationDispatcher} walk the {@link NotificationTimeline} of today and
+ * sets exact alarms for its next entries, so nothing has to run in between. Reminders and,
+ * when reminders are enabled, the start of the next day use a wakeup alarm. Countdown
+ * updates and lesson starts are delivered whenever the device is awake anyway.
+ *
+ * @author Giovanni Terlingen
+ */
+class NotificationScheduler {
+
+    static final String ACTION_UPDATE = "com.giovanniterlingen.windesheim.notification.UPDATE";
+    static final String ACTION_REMIND = "com.giovanniterlingen.windesheim.notification.REMIND";
+    static final String EXTRA_ALARM_TIME = "alarm_time";
+
+    // Hiding or restoring a few lessons in a row only rebuilds the timeline once
+    private static final long RESCHEDULE_DELAY = 500;
+
+    // All timeline work runs on this single thread, so the dispatcher needs no locking
+    private static final ScheduledThreadPoolExecutor executor;
+    private static final NotificationDispatcher dispatcher =
+            new NotificationDispatcher(new AlarmTarget());
+    private static ScheduledFuture<?> pendingReschedule;
+
+    static {
+        executor = new ScheduledThreadPoolExecutor(1);
+        executor.setKeepAliveTime(30, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Sets the alarms when the process starts. What is shown is left alone, the process
+     * might have been started by an alarm that still has to be dispatched.
+     */
+    static void init() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                dispatcher.init(TimeUtils.currentTimeMillis());
+            }
+        });
+    }
+
+    /**
+     * Rebuilds the timeline because the lessons or settings changed. A rebuild that is
+     * still pending is replaced.
+     */
+    static synchronized void reschedule() {
+        if (pendingReschedule != null) {
+            pendingReschedule.cancel(false);
+        }
+        pendingReschedule = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                dispatcher.rebuild(TimeUtils.currentTimeMillis());
+            }
+        }, RESCHEDULE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Dispatches the due entries after an alarm went off
+     *
+     * @param alarmTime the time the alarm was set for
+     * @param finished  run when done, even if dispatching failed
+     */
+    static void dispatch(final long alarmTime, final Runnable finished) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    dispatcher.dispatch(TimeUtils.currentTimeMillis(), alarmTime);
+                } finally {
+                    finished.run();
+                }
+            }
+        });
+    }
+
+    private static void setAlarm(AlarmManager alarmManager, int type, long triggerAtMillis,
+                                 PendingIntent operation) {
+        if (Build.VERSION.SDK_INT >= 23 && type == AlarmManager.RTC_WAKEUP) {
+            alarmManager.setExactAndAllowWhileIdle(type, triggerAtMillis, operation);
+        } else if (Build.VERSION.SDK_INT >= 19) {
+            alarmManager.setExact(type, triggerAtMillis, operation);
+        } else {
+            alarmManager.set(type, triggerAtMillis, operation);
+        }
+    }
+
+    private static PendingIntent getPendingIntent(String action, long alarmTime) {
+        Intent intent = new Intent(ApplicationLoader.applicationContext,
+                NotificationReceiver.class);
+        intent.setAction(action);
+        intent.putExtra(EXTRA_ALARM_TIME, alarmTime);
+        return PendingIntent.getBroadcast(ApplicationLoader.applicationContext, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    /**
+     * Posts the notifications and sets the alarms the dispatcher asks for
+     */
+    private static class AlarmTarget implements NotificationDispatcher.Target {
+
+        @Override
+        public NotificationTimeline buildTimeline(long now) {
+            SharedPreferences preferences = PreferenceManager
+                    .getDefaultSharedPreferences(ApplicationLoader.applicationContext);
+            int notificationType = preferences.getInt(Constants.PREFS_NOTIFICATIONS_TYPE,
+                    Constants.NOTIFICATION_TYPE_NOT_SET);
+            Date today = new Date(now);
+            Lesson[] lessons = DatabaseController.getInstance().getLessons(today);
+            return NotificationTimeline.build(TimeUtils.getDayNumber(today),
+                    TimeUtils.getStartOfDay(now), lessons, notificationType,
+                    new LessonTextFormatter(ApplicationLoader.applicationContext.getResources()));
+        }
+
+        @Override
+        public void showCountdown(String text) {
+            NotificationUtils.getInstance().createNotification(text, true, false);
+        }
+
+        @Override
+        public void showReminder(String text) {
+            NotificationUtils.getInstance().createNotification(text, false, true);
+        }
+
+        @Override
+        public void clearNotification(boolean ongoingOnly) {
+            if (ongoingOnly) {
+                NotificationUtils.getInstance().clearOngoingNotification();
+            } else {
+                NotificationUtils.getInstance().clearNotification();
+            }
+        }
+
+        @Override
+        public void lessonStarted() {
+            // Notify the UI that a lesson has been changed
+            NotificationCenter.getInstance()
+                    .postNotificationName(NotificationCenter.scheduleReload);
+        }
+
+        @Override
+        public void setUpdateAlarm(long time, boolean wakeup) {
+            setAlarm(ACTION_UPDATE, time, wakeup ? AlarmManager.RTC_WAKEUP : AlarmManager.RTC);
+        }
+
+        @Override
+        public void setReminderAlarm(long time) {
+            setAlarm(ACTION_REMIND, time, AlarmManager.RTC_WAKEUP);
+        }
+
+        private void setAlarm(String action, long time, int type) {
+            AlarmManager alarmManager = (AlarmManager) ApplicationLoader.applicationContext
+                    .getSystemService(Context.ALARM_SERVICE);
+            if (alarmManager == null) {
+                return;
+            }
+            if (time == -1) {
+                alarmManager.cancel(getPendingIntent(action, 0));
+            } else {
+                NotificationScheduler.setAlarm(alarmManager, type, time,
+                        getPendingIntent(action, time));
+            }
+        }
+    }
+
+    /**
+     * Formats the notification texts, the time format strings are loaded only once
+     */
+    private static class LessonTextFormatter implements NotificationTimeline.TextFormatter {
+
+        private final Resources resources;
+        private final String[] formats;
+
+        LessonTextFormatter(Resources resources) {
+            this.resources = resources;
+            this.formats = resources.getStringArray(R.array.time_until);
+        }
+
+        @Override
+        public String format(Lesson lesson, boolean multiple, long delta) {
+            final int minutes = (int) (delta / DateUtils.MINUTE_IN_MILLIS % 60);
+            final int hours = (int) (delta / DateUtils.HOUR_IN_MILLIS % 24);
+
+            String timeReadable = getTimeUntilLessonString(delta, minutes, hours);
+            if (multiple) {
+                return resources.getString(R.string.multiple_lessons_notification,
+                        timeReadable);
+            }
+            return resources.getString(R.string.single_lesson_notification,
+                    lesson.getSubject(), timeReadable, lesson.getRoom());
+        }
+
+        /**
+         * format "in 7 hours and 53 minutes"
+         * <p>
+         * Source from Android Open Source Project Deskclock
+         */
+        private String getTimeUntilLessonString(long delta, int minutes, int hours) {
+            // If the delta is less then 60 seconds, just report "less than a minute."
+            if (delta < DateUtils.MINUTE_IN_MILLIS) {
+                return formats[0];
+            }
+
+            // Otherwise, format the remaining time until the lesson starts.
+
+            String minSeq = getNumberFormattedQuantityString(R.plurals.minutes, minutes);
+            String hourSeq = getNumberFormattedQuantityString(R.plurals.hours, hours);
+
+            final boolean showHours = hours > 0;
+            final boolean showMinutes = minutes > 0;
+
+            // Compute the index of the most appropriate time format based on the time delta.
+            final int index = (showHours ? 1 : 0) | (showMinutes ? 2 : 0);
+
+            return String.format(formats[index], hourSeq, minSeq);
+        }
+
+        /**
+         * @param id       Resource id of the plural
+         * @param quantity integer value
+         * @return string with properly localized numbers
+         */
+        private String getNumberFormattedQuantityString(int id, int quantity) {
+            final String localizedQuantity = NumberFormat.getInstance().format(quantity);
+            return resources.getQuantityString(id, quantity, localizedQuantity);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright (c) 2019 Giovanni Terlingen
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ **/
+package com.giovanniterlingen.windesheim;
+
+import android.text.format.DateUtils;
+
+import com.giovanniterlingen.windesheim.models.Lesson;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A schedule app for students and teachers of Windesheim
+ * <p>
+ * All moments the lesson notification changes on a single day, sorted by time. The texts
+ * are formatted once when the timeline is built, so walking it is cheap.
+ *
+ * @author Giovanni Terlingen
+ */
+class NotificationTimeline {
+
+    static final int TYPE_COUNTDOWN = 0;
+    static final int TYPE_REMINDER = 1;
+    static final int TYPE_LESSON_START = 2;
+    static final int TYPE_CLEAR = 3;
+
+    private final int dayNumber;
+    private final int notificationType;
+    private final Entry[] entries;
+
+    private NotificationTimeline(int dayNumber, int notificationType, Entry[] entries) {
+        this.dayNumber = dayNumber;
+        this.notificationType = notificationType;
+        this.entries = entries;
+    }
+
+    /**
+     * @param dayStart the first millisecond of the day the lessons are on
+     * @param lessons  the visible lessons of that day, sorted by start time
+     */
+    static NotificationTimeline build(int dayNumber, long dayStart, Lesson[] lessons,
+                                      int notificationType, TextFormatter formatter) {
+        long reminderOffset = getReminderOffset(notificationType);
+        List<Entry> entries = new ArrayList<>();
+        long countdownStart = dayStart;
+        for (int i = 0; i < lessons.length; i++) {
+            long lessonStartTime = lessons[i].getStartTime().getTime();
+            if (i > 0 && lessons[i - 1].getStartTime().getTime() == lessonStartTime) {
+                continue;
+            }
+            boolean multiple = i + 1 < lessons.length
+                    && lessons[i + 1].getStartTime().getTime() == lessonStartTime;
+
+            if (reminderOffset > 0 && lessonStartTime - reminderOffset >= dayStart) {
+                entries.add(new Entry(lessonStartTime - reminderOffset, TYPE_REMINDER,
+                        formatter.format(lessons[i], multiple, reminderOffset)));
+            }
+            if (notificationType == Constants.NOTIFICATION_TYPE_ALWAYS_ON) {
+                // The countdown text changes as soon as the rounded delta drops a minute
+                long delta = roundUpToMinute(lessonStartTime - countdownStart);
+                long time = countdownStart;
+                while (time < lessonStartTime) {
+                    entries.add(new Entry(time, TYPE_COUNTDOWN,
+                            formatter.format(lessons[i], multiple, delta)));
+                    time = lessonStartTime - delta + DateUtils.MINUTE_IN_MILLIS;
+                    delta -= DateUtils.MINUTE_IN_MILLIS;
+                }
+            }
+            entries.add(new Entry(lessonStartTime, TYPE_LESSON_START, null));
+            countdownStart = Math.max(countdownStart, lessonStartTime);
+        }
+        entries.add(new Entry(countdownStart, TYPE_CLEAR, null));
+
+        // Reminders of later lessons can fall before the start of earlier ones
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry e1, Entry e2) {
+                return e1.time < e2.time ? -1 : (e1.time == e2.time ? 0 : 1);
+            }
+        });
+        return new NotificationTimeline(dayNumber, notificationType,
+                entries.toArray(new Entry[0]));
+    }
+
+    private static long getReminderOffset(int notificationType) {
+        switch (notificationType) {
+            case Constants.NOTIFICATION_TYPE_1_HOUR:
+                return DateUtils.HOUR_IN_MILLIS;
+            case Constants.NOTIFICATION_TYPE_30_MIN:
+                return 30 * DateUtils.MINUTE_IN_MILLIS;
+            case Constants.NOTIFICATION_TYPE_15_MIN:
+                return 15 * DateUtils.MINUTE_IN_MILLIS;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Round delta upwards to the nearest whole minute. (e.g. 7m 58s -> 8m)
+     */
+    private static long roundUpToMinute(long delta) {
+        final long remainder = delta % DateUtils.MINUTE_IN_MILLIS;
+        return delta + (remainder == 0 ? 0 : (DateUtils.MINUTE_IN_MILLIS - remainder));
+    }
+
+    int getDayNumber() {
+        return dayNumber;
+    }
+
+    int getNotificationType() {
+        return notificationType;
+    }
+
+    /**
+     * @return whether reminders are posted before lessons start
+     */
+    boolean hasReminders() {
+        return getReminderOffset(notificationType) > 0;
+    }
+
+    int size() {
+        return entries.length;
+    }
+
+    Entry get(int index) {
+        return entries[index];
+    }
+
+    /**
+     * @return the index of the first entry after the given time, or size() if there is none
+     */
+    int indexAfter(long time) {
+        int low = 0;
+        int high = entries.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (entries[mid].time <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the countdown or clear entry that is in effect at the given time, or null
+     */
+    Entry getStateAt(long time) {
+        for (int i = indexAfter(time) - 1; i >= 0; i--) {
+            if (entries[i].type == TYPE_COUNTDOWN || entries[i].type == TYPE_CLEAR) {
+                return entries[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param reminder whether to look for the next reminder or for any other entry
+     * @return the time of the next matching entry after the given time, or -1
+     */
+    long getNextTime(long time, boolean reminder) {
+        for (int i = indexAfter(time); i < entries.length; i++) {
+            if ((entries[i].type == TYPE_REMINDER) == reminder) {
+                return entries[i].time;
+            }
+        }
+        return -1;
+    }
+
+    interface TextFormatter {
+
+        /**
+         * @param delta time until the lesson starts, rounded up to whole minutes
+         */
+        String format(Lesson lesson, boolean multiple, long delta);
+    }
+
+    static class Entry {
+
+        final long time;
+        final int type;
+        final String text;
+
+        Entry(long time, int type, String text) {
+            this.time = time;
+            this.type = type;
+            this.text = text;
+        }
+    }
+}
@@ -37,14 +37,10 @@ public class TimeReceiver extends BroadcastReceiver {
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        if (Intent.ACTION_TIME_TICK.equals(intent.getAction())) {
-            ApplicationLoader.notifyMinuteChanged();
-            return;
-        }
         if (Intent.ACTION_TIMEZONE_CHANGED.equals(intent.getAction()) ||
                 Intent.ACTION_TIME_CHANGED.equals(intent.getAction()) ||
                 Intent.ACTION_DATE_CHANGED.equals(intent.getAction())) {
-            ApplicationLoader.notifyDateChanged();
+            ApplicationLoader.rescheduleNotifications();
         }
     }
 }
\ No newline at end of file
@@ -29,15 +29,30 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.provider.BaseColumns;
+import android.util.SparseArray;
+
+import androidx.collection.LruCache;
 
 import com.giovanniterlingen.windesheim.ApplicationLoader;
 import com.giovanniterlingen.windesheim.Constants;
+import com.giovanniterlingen.windesheim.models.CalendarRow;
 import com.giovanniterlingen.windesheim.models.Lesson;
+import com.giovanniterlingen.windesheim.models.NatschoolContent;
+import com.giovanniterlingen.windesheim.models.NatschoolFolder;
 import com.giovanniterlingen.windesheim.models.Schedule;
+import com.giovanniterlingen.windesheim.models.ScheduleChanges;
+import com.giovanniterlingen.windesheim.models.Week;
+import com.giovanniterlingen.windesheim.utils.ColorUtils;
 import com.giovanniterlingen.windesheim.utils.TimeUtils;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A schedule app for students and teachers of Windesheim
@@ -46,7 +61,8 @@ import java.util.Date;
  */
 public class DatabaseController extends SQLiteOpenHelper {
 
-    private static final int DATABASE_VERSION = 11;
+    private static final int DATABASE_VERSION = 14;
+    private static final int WEEK_CACHE_SIZE = 8;
     private static final String DATABASE_NAME = "schedulestore.db";
     private static final String SQL_CREATE_SCHEDULE_ENTRIES =
             "CREATE TABLE " + ScheduleEntry.TABLE_NAME + " (" +
@@ -59,7 +75,7 @@ public class DatabaseController extends SQLiteOpenHelper {
                     LessonEntry._ID + " INTEGER PRIMARY KEY," +
                     LessonEntry.COLUMN_NAME_LESSON_ID + " INTEGER," +
                     LessonEntry.COLUMN_NAME_SUBJECT + " TEXT," +
-                    LessonEntry.COLUMN_NAME_DATE + " TEXT," +
+                    LessonEntry.COLUMN_NAME_DATE + " INTEGER," +
                     LessonEntry.COLUMN_NAME_START_TIME + " INTEGER," +
                     LessonEntry.COLUMN_NAME_END_TIME + " INTEGER," +
                     LessonEntry.COLUMN_NAME_ROOM + " TEXT," +
@@ -68,18 +84,105 @@ public class DatabaseController extends SQLiteOpenHelper {
                     LessonEntry.COLUMN_NAME_SCHEDULE_ID + " INTEGER," +
                     LessonEntry.COLUMN_NAME_SCHEDULE_TYPE + " INTEGER," +
                     LessonEntry.COLUMN_NAME_VISIBLE + " INTEGER)";
+    private static final String[] SQL_CREATE_LESSON_INDEXES = {
+            "CREATE INDEX lessons_date_index ON " + LessonEntry.TABLE_NAME + " (" +
+                    LessonEntry.COLUMN_NAME_DATE + "," +
+                    LessonEntry.COLUMN_NAME_VISIBLE + "," +
+                    LessonEntry.COLUMN_NAME_START_TIME + ")",
+            "CREATE INDEX lessons_schedule_date_index ON " + LessonEntry.TABLE_NAME + " (" +
+                    LessonEntry.COLUMN_NAME_SCHEDULE_ID + "," +
+                    LessonEntry.COLUMN_NAME_DATE + ")",
+            "CREATE INDEX lessons_schedule_lesson_index ON " + LessonEntry.TABLE_NAME + " (" +
+                    LessonEntry.COLUMN_NAME_SCHEDULE_ID + "," +
+                    LessonEntry.COLUMN_NAME_LESSON_ID + ")",
+            "CREATE INDEX lessons_subject_teacher_index ON " + LessonEntry.TABLE_NAME + " (" +
+                    LessonEntry.COLUMN_NAME_SUBJECT + "," +
+                    LessonEntry.COLUMN_NAME_TEACHER + ")"
+    };
     private static final String SQL_CREATE_CALENDAR_ENTRIES =
             "CREATE TABLE " + CalendarRowsEntry.TABLE_NAME + " (" +
                     LessonEntry._ID + " INTEGER PRIMARY KEY," +
-                    CalendarRowsEntry.COLUMN_NAME_EVENT_ID + " INTEGER)";
+                    CalendarRowsEntry.COLUMN_NAME_EVENT_ID + " INTEGER," +
+                    CalendarRowsEntry.COLUMN_NAME_LESSON_ID + " TEXT," +
+                    CalendarRowsEntry.COLUMN_NAME_SCHEDULE_ID + " TEXT," +
+                    CalendarRowsEntry.COLUMN_NAME_FINGERPRINT + " INTEGER)";
+    private static final String SQL_CREATE_NATSCHOOL_FOLDER_ENTRIES =
+            "CREATE TABLE " + NatschoolFolderEntry.TABLE_NAME + " (" +
+                    NatschoolFolderEntry._ID + " INTEGER PRIMARY KEY," +
+                    NatschoolFolderEntry.COLUMN_NAME_STUDY_ROUTE_ID + " INTEGER," +
+                    NatschoolFolderEntry.COLUMN_NAME_PARENT_ID + " INTEGER," +
+                    NatschoolFolderEntry.COLUMN_NAME_FETCH_TIME + " INTEGER," +
+                    "UNIQUE (" + NatschoolFolderEntry.COLUMN_NAME_STUDY_ROUTE_ID + "," +
+                    NatschoolFolderEntry.COLUMN_NAME_PARENT_ID + "))";
+    private static final String SQL_CREATE_NATSCHOOL_CONTENT_ENTRIES =
+            "CREATE TABLE " + NatschoolContentEntry.TABLE_NAME + " (" +
+                    NatschoolContentEntry._ID + " INTEGER PRIMARY KEY," +
+                    NatschoolContentEntry.COLUMN_NAME_STUDY_ROUTE_ID + " INTEGER," +
+                    NatschoolContentEntry.COLUMN_NAME_PARENT_ID + " INTEGER," +
+                    NatschoolContentEntry.COLUMN_NAME_CONTENT_ID + " INTEGER," +
+                    NatschoolContentEntry.COLUMN_NAME_NAME + " TEXT," +
+                    NatschoolContentEntry.COLUMN_NAME_STUDY_ROUTE_ITEM_ID + " INTEGER," +
+                    NatschoolContentEntry.COLUMN_NAME_TYPE + " INTEGER," +
+                    NatschoolContentEntry.COLUMN_NAME_URL + " TEXT," +
+                    NatschoolContentEntry.COLUMN_NAME_IMAGE_URL + " TEXT)";
+    private static final String SQL_CREATE_NATSCHOOL_CONTENT_INDEX =
+            "CREATE INDEX natschool_contents_folder_index ON " +
+                    NatschoolContentEntry.TABLE_NAME + " (" +
+                    NatschoolContentEntry.COLUMN_NAME_STUDY_ROUTE_ID + "," +
+                    NatschoolContentEntry.COLUMN_NAME_PARENT_ID + ")";
+    private static final String SQL_INSERT_LESSON_ENTRY =
+            "INSERT INTO " + LessonEntry.TABLE_NAME + " (" +
+                    LessonEntry.COLUMN_NAME_LESSON_ID + "," +
+                    LessonEntry.COLUMN_NAME_SUBJECT + "," +
+                    LessonEntry.COLUMN_NAME_DATE + "," +
+                    LessonEntry.COLUMN_NAME_START_TIME + "," +
+                    LessonEntry.COLUMN_NAME_END_TIME + "," +
+                    LessonEntry.COLUMN_NAME_ROOM + "," +
+                    LessonEntry.COLUMN_NAME_TEACHER + "," +
+                    LessonEntry.COLUMN_NAME_CLASS_NAME + "," +
+                    LessonEntry.COLUMN_NAME_SCHEDULE_ID + "," +
+                    LessonEntry.COLUMN_NAME_SCHEDULE_TYPE + "," +
+                    LessonEntry.COLUMN_NAME_VISIBLE + ") VALUES (?,?,?,?,?,?,?,?,?,?,?)";
+    private static final String[] LESSON_PROJECTION = {
+            LessonEntry.COLUMN_NAME_LESSON_ID,
+            LessonEntry.COLUMN_NAME_SUBJECT,
+            LessonEntry.COLUMN_NAME_DATE,
+            LessonEntry.COLUMN_NAME_START_TIME,
+            LessonEntry.COLUMN_NAME_END_TIME,
+            LessonEntry.COLUMN_NAME_ROOM,
+            LessonEntry.COLUMN_NAME_TEACHER,
+            LessonEntry.COLUMN_NAME_CLASS_NAME,
+            LessonEntry.COLUMN_NAME_SCHEDULE_ID,
+            LessonEntry.COLUMN_NAME_SCHEDULE_TYPE,
+            LessonEntry.COLUMN_NAME_VISIBLE
+    };
+    private static final Constants.SCHEDULE_TYPE[] SCHEDULE_TYPES = Constants.SCHEDULE_TYPE.values();
+    // Stays below the default WAL connection pool size, so reads never wait for a connection
+    private static final int READ_THREAD_COUNT = 2;
+    private static final ThreadPoolExecutor readExecutor;
+    private static final ThreadPoolExecutor writeExecutor;
     private static volatile DatabaseController Instance = null;
     private final SQLiteDatabase database;
+    private final LruCache<Integer, Week> weekCache = new LruCache<>(WEEK_CACHE_SIZE);
+    private int weekCacheGeneration;
 
     private DatabaseController() {
         super(ApplicationLoader.applicationContext, DATABASE_NAME, null, DATABASE_VERSION);
+        // Lets readers use their own pooled connections while a refresh is writing
+        setWriteAheadLoggingEnabled(true);
         database = this.getWritableDatabase();
     }
 
+    static {
+        readExecutor = new ThreadPoolExecutor(READ_THREAD_COUNT, READ_THREAD_COUNT,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        readExecutor.allowCoreThreadTimeOut(true);
+        // A single writer keeps writes in the order they were requested
+        writeExecutor = new ThreadPoolExecutor(1, 1,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        writeExecutor.allowCoreThreadTimeOut(true);
+    }
+
     public static DatabaseController getInstance() {
         DatabaseController localInstance = Instance;
         if (localInstance == null) {
@@ -93,47 +196,245 @@ public class DatabaseController extends SQLiteOpenHelper {
         return localInstance;
     }
 
+    /**
+     * Runs a query on a background thread and delivers the result on the UI thread
+     */
+    private static <T> void read(final Query<T> query, final Callback<T> callback) {
+        readExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliver(query.run(getInstance()), callback);
+            }
+        });
+    }
+
+    /**
+     * Runs a write on the writer thread and calls back on the UI thread when it is done
+     */
+    private static void write(final Query<Void> query, final Runnable done) {
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                query.run(getInstance());
+                if (done != null) {
+                    ApplicationLoader.runOnUIThread(done);
+                }
+            }
+        });
+    }
+
+    private static <T> void deliver(final T result, final Callback<T> callback) {
+        ApplicationLoader.runOnUIThread(new Runnable() {
+            @Override
+            public void run() {
+                callback.onResult(result);
+            }
+        });
+    }
+
+    /**
+     * Runs a task on the reader threads, e.g. to initialize things that need the database
+     */
+    public static void executeInBackground(Runnable runnable) {
+        readExecutor.execute(runnable);
+    }
+
+    public static void getLessonsAsync(final Date date, Callback<Lesson[]> callback) {
+        read(new Query<Lesson[]>() {
+            @Override
+            public Lesson[] run(DatabaseController controller) {
+                Lesson[] lessons = controller.getLessons(date);
+                ColorUtils.loadColors();
+                return lessons;
+            }
+        }, callback);
+    }
+
+    public static void getHiddenLessonsAsync(Callback<Lesson[]> callback) {
+        read(new Query<Lesson[]>() {
+            @Override
+            public Lesson[] run(DatabaseController controller) {
+                Lesson[] lessons = controller.getHiddenLessons();
+                ColorUtils.loadColors();
+                return lessons;
+            }
+        }, callback);
+    }
+
+    public static void hasSchedulesAsync(Callback<Boolean> callback) {
+        read(new Query<Boolean>() {
+            @Override
+            public Boolean run(DatabaseController controller) {
+                return controller.hasSchedules();
+            }
+        }, callback);
+    }
+
+    public static void hideLessonAsync(final Lesson lesson, Runnable done) {
+        write(new Query<Void>() {
+            @Override
+            public Void run(DatabaseController controller) {
+                controller.hideLesson(lesson);
+                return null;
+            }
+        }, done);
+    }
+
+    public static void restoreLessonAsync(final Lesson lesson, Runnable done) {
+        write(new Query<Void>() {
+            @Override
+            public Void run(DatabaseController controller) {
+                controller.restoreLesson(lesson);
+                return null;
+            }
+        }, done);
+    }
+
     @Override
     public void onCreate(SQLiteDatabase database) {
         database.execSQL(SQL_CREATE_SCHEDULE_ENTRIES);
-        database.execSQL(SQL_CREATE_LESSON_ENTRIES);
+        createLessonEntries(database);
         database.execSQL(SQL_CREATE_CALENDAR_ENTRIES);
+        createNatschoolEntries(database);
+    }
+
+    private void createNatschoolEntries(SQLiteDatabase database) {
+        database.execSQL(SQL_CREATE_NATSCHOOL_FOLDER_ENTRIES);
+        database.execSQL(SQL_CREATE_NATSCHOOL_CONTENT_ENTRIES);
+        database.execSQL(SQL_CREATE_NATSCHOOL_CONTENT_INDEX);
     }
 
-    void saveLessons(Lesson[] lessons) {
-        for (Lesson lesson : lessons) {
-            saveLesson(lesson);
+    private void createLessonEntries(SQLiteDatabase database) {
+        database.execSQL(SQL_CREATE_LESSON_ENTRIES);
+        for (String sql : SQL_CREATE_LESSON_INDEXES) {
+            database.execSQL(sql);
         }
     }
 
-    private void saveLesson(Lesson lesson) {
-        ContentValues values = new ContentValues();
-        values.put(LessonEntry.COLUMN_NAME_LESSON_ID, lesson.getId());
-        values.put(LessonEntry.COLUMN_NAME_SUBJECT, lesson.getSubject());
-        values.put(LessonEntry.COLUMN_NAME_DATE, TimeUtils.getYearMonthDayDateFormat()
-                .format(lesson.getStartTime()));
-        values.put(LessonEntry.COLUMN_NAME_START_TIME, lesson.getStartTime().getTime());
-        values.put(LessonEntry.COLUMN_NAME_END_TIME, lesson.getEndTime().getTime());
-        values.put(LessonEntry.COLUMN_NAME_ROOM, lesson.getRoom());
-        values.put(LessonEntry.COLUMN_NAME_TEACHER, lesson.getTeacher());
-        values.put(LessonEntry.COLUMN_NAME_CLASS_NAME, lesson.getClassName());
-        values.put(LessonEntry.COLUMN_NAME_SCHEDULE_ID, lesson.getScheduleId());
-        values.put(LessonEntry.COLUMN_NAME_SCHEDULE_TYPE, lesson.getScheduleType().ordinal());
-        values.put(LessonEntry.COLUMN_NAME_VISIBLE, lesson.isVisible() ? 1 : 0);
-        database.insert(LessonEntry.TABLE_NAME, null, values);
-    }
-
-    void clearScheduleData(String id) {
+    /**
+     * Replaces the stored lessons of a schedule in a single transaction, so a schedule is
+     * never left half empty when something goes wrong while writing.
+     */
+    void saveLessons(String scheduleId, Lesson[] lessons) {
+        SQLiteStatement statement = database.compileStatement(SQL_INSERT_LESSON_ENTRY);
+        database.beginTransactionNonExclusive();
+        try {
+            clearScheduleData(scheduleId);
+            for (Lesson lesson : lessons) {
+                saveLesson(statement, lesson);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            statement.close();
+            invalidateWeekCache();
+        }
+    }
+
+    /**
+     * Applies only the changes between the stored and fetched lessons of a schedule
+     */
+    void saveLessonChanges(String scheduleId, ScheduleChanges changes) {
+        SQLiteStatement statement = database.compileStatement(SQL_INSERT_LESSON_ENTRY);
+        database.beginTransactionNonExclusive();
+        try {
+            // Lessons before this week are never shown again
+            String selection = LessonEntry.COLUMN_NAME_DATE + " < ? AND " +
+                    LessonEntry.COLUMN_NAME_SCHEDULE_ID + " = ?";
+            String[] selectionArgs = {
+                    Integer.toString(TimeUtils.getWeekDayNumbers(TimeUtils.now())[0]),
+                    scheduleId
+            };
+            database.delete(LessonEntry.TABLE_NAME, selection, selectionArgs);
+
+            String lessonSelection = LessonEntry.COLUMN_NAME_LESSON_ID + " = ? AND " +
+                    LessonEntry.COLUMN_NAME_SCHEDULE_ID + " = ?";
+            for (Lesson lesson : changes.getRemoved()) {
+                String[] lessonSelectionArgs = {lesson.getId(), scheduleId};
+                database.delete(LessonEntry.TABLE_NAME, lessonSelection, lessonSelectionArgs);
+            }
+            List<Lesson> updatedLessons = new ArrayList<>(changes.getMoved());
+            updatedLessons.addAll(changes.getChanged());
+            for (Lesson lesson : updatedLessons) {
+                ContentValues values = new ContentValues();
+                values.put(LessonEntry.COLUMN_NAME_SUBJECT, lesson.getSubject());
+                values.put(LessonEntry.COLUMN_NAME_DATE,
+                        TimeUtils.getDayNumber(lesson.getStartTime()));
+                values.put(LessonEntry.COLUMN_NAME_START_TIME, lesson.getStartTime().getTime());
+                values.put(LessonEntry.COLUMN_NAME_END_TIME, lesson.getEndTime().getTime());
+                values.put(LessonEntry.COLUMN_NAME_ROOM, lesson.getRoom());
+                values.put(LessonEntry.COLUMN_NAME_TEACHER, lesson.getTeacher());
+                values.put(LessonEntry.COLUMN_NAME_CLASS_NAME, lesson.getClassName());
+                values.put(LessonEntry.COLUMN_NAME_VISIBLE, lesson.isVisible() ? 1 : 0);
+                String[] lessonSelectionArgs = {lesson.getId(), scheduleId};
+                database.update(LessonEntry.TABLE_NAME, values, lessonSelection,
+                        lessonSelectionArgs);
+            }
+            for (Lesson lesson : changes.getAdded()) {
+                saveLesson(statement, lesson);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            statement.close();
+            invalidateWeekCache();
+        }
+    }
+
+    private void saveLesson(SQLiteStatement statement, Lesson lesson) {
+        statement.clearBindings();
+        bindString(statement, 1, lesson.getId());
+        bindString(statement, 2, lesson.getSubject());
+        statement.bindLong(3, TimeUtils.getDayNumber(lesson.getStartTime()));
+        statement.bindLong(4, lesson.getStartTime().getTime());
+        statement.bindLong(5, lesson.getEndTime().getTime());
+        bindString(statement, 6, lesson.getRoom());
+        bindString(statement, 7, lesson.getTeacher());
+        bindString(statement, 8, lesson.getClassName());
+        bindString(statement, 9, lesson.getScheduleId());
+        statement.bindLong(10, lesson.getScheduleType().ordinal());
+        statement.bindLong(11, lesson.isVisible() ? 1 : 0);
+        statement.executeInsert();
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+            return;
+        }
+        statement.bindString(index, value);
+    }
+
+    private void clearScheduleData(String id) {
         String selection = "(" + LessonEntry.COLUMN_NAME_DATE + " < ? OR " + LessonEntry.COLUMN_NAME_DATE
                 + " >= ?) AND " + LessonEntry.COLUMN_NAME_SCHEDULE_ID + " = ?";
-        String[] weekDates = TimeUtils.getWeekDates(new Date());
+        Date today = TimeUtils.now();
         String[] selectionArgs = {
-                weekDates[0], // Monday in the current week
-                TimeUtils.getYearMonthDayDateFormat()
-                        .format(new Date()), // Today
+                Integer.toString(TimeUtils.getWeekDayNumbers(today)[0]), // Monday in the current week
+                Integer.toString(TimeUtils.getDayNumber(today)), // Today
                 id
         };
         database.delete(LessonEntry.TABLE_NAME, selection, selectionArgs);
+        invalidateWeekCache();
+    }
+
+    boolean hasLessons(String scheduleId) {
+        String[] projection = {LessonEntry._ID};
+        String selection = LessonEntry.COLUMN_NAME_SCHEDULE_ID + " = ?";
+        String[] selectionArgs = {scheduleId};
+        Cursor cursor = database.query(
+                LessonEntry.TABLE_NAME,
+                projection,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                null,
+                "1"
+        );
+        boolean hasLessons = cursor.getCount() > 0;
+        cursor.close();
+        return hasLessons;
     }
 
     public void hideLesson(Lesson lesson) {
@@ -143,6 +444,7 @@ public class DatabaseController extends SQLiteOpenHelper {
                 LessonEntry.COLUMN_NAME_TEACHER + " = ?";
         String[] selectionArgs = {lesson.getSubject(), lesson.getTeacher()};
         database.update(LessonEntry.TABLE_NAME, values, selection, selectionArgs);
+        invalidateWeekCache();
     }
 
     public void restoreLesson(Lesson lesson) {
@@ -152,114 +454,123 @@ public class DatabaseController extends SQLiteOpenHelper {
                 LessonEntry.COLUMN_NAME_TEACHER + " = ?";
         String[] selectionArgs = {lesson.getSubject(), lesson.getTeacher()};
         database.update(LessonEntry.TABLE_NAME, values, selection, selectionArgs);
+        invalidateWeekCache();
     }
 
+    /**
+     * Get the visible lessons of a single day, served from the week cache when possible
+     */
     public Lesson[] getLessons(Date date) {
-        String[] projection = {
-                LessonEntry._ID,
-                LessonEntry.COLUMN_NAME_LESSON_ID,
-                LessonEntry.COLUMN_NAME_SUBJECT,
-                LessonEntry.COLUMN_NAME_DATE,
-                LessonEntry.COLUMN_NAME_START_TIME,
-                LessonEntry.COLUMN_NAME_END_TIME,
-                LessonEntry.COLUMN_NAME_ROOM,
-                LessonEntry.COLUMN_NAME_TEACHER,
-                LessonEntry.COLUMN_NAME_CLASS_NAME,
-                LessonEntry.COLUMN_NAME_SCHEDULE_ID,
-                LessonEntry.COLUMN_NAME_SCHEDULE_TYPE,
-                LessonEntry.COLUMN_NAME_VISIBLE,
-        };
+        return getWeek(date).getLessons(date);
+    }
+
+    /**
+     * Get the cached lessons of a single day without touching the database
+     *
+     * @return the lessons or null if the week of this day is not cached
+     */
+    public Lesson[] getCachedLessons(Date date) {
+        Week week;
+        synchronized (weekCache) {
+            week = weekCache.get(TimeUtils.getWeekDayNumbers(date)[0]);
+        }
+        return week == null ? null : week.getLessons(date);
+    }
 
-        String selection = LessonEntry.COLUMN_NAME_DATE + " = ? AND " +
+    /**
+     * Get the visible lessons of the week the given date is in, with a single query
+     */
+    public Week getWeek(Date date) {
+        int[] weekDayNumbers = TimeUtils.getWeekDayNumbers(date);
+        int generation;
+        synchronized (weekCache) {
+            Week week = weekCache.get(weekDayNumbers[0]);
+            if (week != null) {
+                return week;
+            }
+            generation = weekCacheGeneration;
+        }
+        Week week = new Week(weekDayNumbers[0], getLessons(weekDayNumbers[0], weekDayNumbers[1]));
+        synchronized (weekCache) {
+            // Do not cache the week if the lessons were written while we were reading them
+            if (generation == weekCacheGeneration) {
+                weekCache.put(weekDayNumbers[0], week);
+            }
+        }
+        return week;
+    }
+
+    private void invalidateWeekCache() {
+        synchronized (weekCache) {
+            weekCacheGeneration++;
+            weekCache.evictAll();
+        }
+    }
+
+    /**
+     * Get the visible lessons between two day numbers (inclusive), grouped by day number
+     */
+    public SparseArray<Lesson[]> getLessons(int fromDayNumber, int toDayNumber) {
+        String selection = LessonEntry.COLUMN_NAME_DATE + " >= ? AND " +
+                LessonEntry.COLUMN_NAME_DATE + " <= ? AND " +
                 LessonEntry.COLUMN_NAME_VISIBLE + " = ?";
-        String[] selectionArgs = {TimeUtils.getYearMonthDayDateFormat().format(date),
-                Integer.toString(1)};
-        String sortOrder = LessonEntry.COLUMN_NAME_START_TIME + ", " +
+        String[] selectionArgs = {Integer.toString(fromDayNumber),
+                Integer.toString(toDayNumber), Integer.toString(1)};
+        String sortOrder = LessonEntry.COLUMN_NAME_DATE + ", " +
+                LessonEntry.COLUMN_NAME_START_TIME + ", " +
                 LessonEntry.COLUMN_NAME_END_TIME + ", " + LessonEntry.COLUMN_NAME_SUBJECT;
 
         Cursor cursor = database.query(
                 LessonEntry.TABLE_NAME,
-                projection,
+                LESSON_PROJECTION,
                 selection,
                 selectionArgs,
                 null,
                 null,
                 sortOrder
         );
-        Lesson[] lessons = new Lesson[cursor.getCount()];
-        int i = 0;
+        LessonMapper mapper = new LessonMapper(cursor);
+        SparseArray<Lesson[]> lessonsByDay = new SparseArray<>();
+        List<Lesson> dayLessons = new ArrayList<>();
+        int currentDayNumber = fromDayNumber;
         while (cursor.moveToNext()) {
-            Lesson lesson = new Lesson();
-            lesson.setId(cursor.getString(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_LESSON_ID)));
-            lesson.setSubject(cursor.getString(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_SUBJECT)));
-            lesson.setStartTime(new Date(cursor.getLong(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_START_TIME))));
-            lesson.setEndTime(new Date(cursor.getLong(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_END_TIME))));
-            lesson.setRoom(cursor.getString(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_ROOM)));
-            lesson.setTeacher(cursor.getString(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_TEACHER)));
-            lesson.setClassName(cursor.getString(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_CLASS_NAME)));
-            lesson.setScheduleId(cursor.getString(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_SCHEDULE_ID)));
-            lesson.setScheduleType(Constants.SCHEDULE_TYPE.values()[cursor.getInt(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_SCHEDULE_TYPE))]);
-            lesson.setVisible(cursor.getInt(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_VISIBLE)) == 1);
-            lessons[i] = lesson;
-            i++;
+            int dayNumber = mapper.getDayNumber(cursor);
+            if (dayNumber != currentDayNumber && !dayLessons.isEmpty()) {
+                lessonsByDay.put(currentDayNumber, dayLessons.toArray(new Lesson[0]));
+                dayLessons.clear();
+            }
+            currentDayNumber = dayNumber;
+            dayLessons.add(mapper.map(cursor));
+        }
+        if (!dayLessons.isEmpty()) {
+            lessonsByDay.put(currentDayNumber, dayLessons.toArray(new Lesson[0]));
         }
         cursor.close();
-        return lessons;
+        return lessonsByDay;
     }
 
     /**
-     * Get lessons for this week to check if they are changed
+     * Get lessons from today on to check if they are changed. Earlier lessons of this week are
+     * not in the feed anymore, they are kept as they are.
      */
     Lesson[] getLessonsForCompare(String scheduleId) {
-        String[] weekDates = TimeUtils.getWeekDates(new Date());
-        String[] projection = {
-                LessonEntry._ID,
-                LessonEntry.COLUMN_NAME_LESSON_ID,
-                LessonEntry.COLUMN_NAME_SUBJECT,
-                LessonEntry.COLUMN_NAME_START_TIME,
-                LessonEntry.COLUMN_NAME_END_TIME,
-                LessonEntry.COLUMN_NAME_ROOM,
-                LessonEntry.COLUMN_NAME_TEACHER,
-                LessonEntry.COLUMN_NAME_CLASS_NAME,
-                LessonEntry.COLUMN_NAME_SCHEDULE_ID,
-                LessonEntry.COLUMN_NAME_SCHEDULE_TYPE,
-                LessonEntry.COLUMN_NAME_VISIBLE,
-        };
-        String selection = "(" + LessonEntry.COLUMN_NAME_DATE + " >= ? OR " +
-                LessonEntry.COLUMN_NAME_DATE + " <= ?) AND " +
+        String selection = LessonEntry.COLUMN_NAME_DATE + " >= ? AND " +
                 LessonEntry.COLUMN_NAME_SCHEDULE_ID + " = ?";
-        String[] selectionArgs = {weekDates[0], weekDates[1], scheduleId};
+        String[] selectionArgs = {Integer.toString(TimeUtils.getDayNumber(TimeUtils.now())),
+                scheduleId};
         String sortOrder = LessonEntry.COLUMN_NAME_START_TIME + ", " +
                 LessonEntry.COLUMN_NAME_END_TIME + ", " + LessonEntry.COLUMN_NAME_SUBJECT;
 
         Cursor cursor = database.query(
                 LessonEntry.TABLE_NAME,
-                projection,
+                LESSON_PROJECTION,
                 selection,
                 selectionArgs,
                 null,
                 null,
                 sortOrder
         );
-        Lesson[] lessons = new Lesson[cursor.getCount()];
-        int i = 0;
-        while (cursor.moveToNext()) {
-            Lesson lesson = new Lesson();
-            lesson.setId(cursor.getString(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_LESSON_ID)));
-            lesson.setSubject(cursor.getString(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_SUBJECT)));
-            lesson.setStartTime(new Date(cursor.getLong(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_START_TIME))));
-            lesson.setEndTime(new Date(cursor.getLong(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_END_TIME))));
-            lesson.setRoom(cursor.getString(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_ROOM)));
-            lesson.setTeacher(cursor.getString(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_TEACHER)));
-            lesson.setClassName(cursor.getString(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_CLASS_NAME)));
-            lesson.setScheduleId(cursor.getString(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_SCHEDULE_ID)));
-            lesson.setScheduleType(Constants.SCHEDULE_TYPE.values()[cursor.getInt(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_SCHEDULE_TYPE))]);
-            lesson.setVisible(cursor.getInt(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_VISIBLE)) == 1);
-            lessons[i] = lesson;
-            i++;
-        }
-        cursor.close();
-        return lessons;
+        return mapLessons(cursor);
     }
 
     public void addSchedule(String id, String name, Constants.SCHEDULE_TYPE type) throws SQLiteConstraintException {
@@ -277,6 +588,7 @@ public class DatabaseController extends SQLiteOpenHelper {
 
         String selection2 = LessonEntry.COLUMN_NAME_SCHEDULE_ID + " = ?";
         database.delete(LessonEntry.TABLE_NAME, selection2, selectionArgs);
+        invalidateWeekCache();
     }
 
     public Schedule[] getSchedules() {
@@ -301,7 +613,7 @@ public class DatabaseController extends SQLiteOpenHelper {
             Schedule schedule = new Schedule();
             schedule.setId(cursor.getString(cursor.getColumnIndex(ScheduleEntry.COLUMN_NAME_SCHEDULE_ID)));
             schedule.setName(cursor.getString(cursor.getColumnIndex(ScheduleEntry.COLUMN_NAME_SCHEDULE_NAME)));
-            schedule.setType(Constants.SCHEDULE_TYPE.values()[cursor.getInt(cursor.getColumnIndex(ScheduleEntry.COLUMN_NAME_SCHEDULE_TYPE))]);
+            schedule.setType(SCHEDULE_TYPES[cursor.getInt(cursor.getColumnIndex(ScheduleEntry.COLUMN_NAME_SCHEDULE_TYPE))]);
             schedules[i] = schedule;
             i++;
         }
@@ -330,20 +642,6 @@ public class DatabaseController extends SQLiteOpenHelper {
     }
 
     public Lesson[] getHiddenLessons() {
-        String[] projection = {
-                LessonEntry._ID,
-                LessonEntry.COLUMN_NAME_LESSON_ID,
-                LessonEntry.COLUMN_NAME_SUBJECT,
-                LessonEntry.COLUMN_NAME_START_TIME,
-                LessonEntry.COLUMN_NAME_END_TIME,
-                LessonEntry.COLUMN_NAME_ROOM,
-                LessonEntry.COLUMN_NAME_TEACHER,
-                LessonEntry.COLUMN_NAME_CLASS_NAME,
-                LessonEntry.COLUMN_NAME_SCHEDULE_ID,
-                LessonEntry.COLUMN_NAME_SCHEDULE_TYPE,
-                LessonEntry.COLUMN_NAME_VISIBLE,
-        };
-
         String selection = LessonEntry.COLUMN_NAME_VISIBLE + " = ?";
         String[] selectionArgs = {Integer.toString(0)};
         String group = LessonEntry.COLUMN_NAME_SUBJECT + " AND " + LessonEntry.COLUMN_NAME_TEACHER;
@@ -351,34 +649,54 @@ public class DatabaseController extends SQLiteOpenHelper {
 
         Cursor cursor = database.query(
                 LessonEntry.TABLE_NAME,
-                projection,
+                LESSON_PROJECTION,
                 selection,
                 selectionArgs,
                 group,
                 null,
                 sortOrder
         );
+        return mapLessons(cursor);
+    }
+
+    /**
+     * Maps all rows of the cursor and closes it
+     */
+    private static Lesson[] mapLessons(Cursor cursor) {
+        LessonMapper mapper = new LessonMapper(cursor);
         Lesson[] lessons = new Lesson[cursor.getCount()];
         int i = 0;
         while (cursor.moveToNext()) {
-            Lesson lesson = new Lesson();
-            lesson.setId(cursor.getString(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_LESSON_ID)));
-            lesson.setSubject(cursor.getString(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_SUBJECT)));
-            lesson.setStartTime(new Date(cursor.getLong(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_START_TIME))));
-            lesson.setEndTime(new Date(cursor.getLong(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_END_TIME))));
-            lesson.setRoom(cursor.getString(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_ROOM)));
-            lesson.setTeacher(cursor.getString(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_TEACHER)));
-            lesson.setClassName(cursor.getString(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_CLASS_NAME)));
-            lesson.setScheduleId(cursor.getString(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_SCHEDULE_ID)));
-            lesson.setScheduleType(Constants.SCHEDULE_TYPE.values()[cursor.getInt(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_SCHEDULE_TYPE))]);
-            lesson.setVisible(cursor.getInt(cursor.getColumnIndex(LessonEntry.COLUMN_NAME_VISIBLE)) == 1);
-            lessons[i] = lesson;
+            lessons[i] = mapper.map(cursor);
             i++;
         }
         cursor.close();
         return lessons;
     }
 
+    /**
+     * @return the schedule ids in the order they were added, which determines their colors
+     */
+    public String[] getScheduleIds() {
+        String[] projection = {ScheduleEntry.COLUMN_NAME_SCHEDULE_ID};
+        Cursor cursor = database.query(
+                ScheduleEntry.TABLE_NAME,
+                projection,
+                null,
+                null,
+                null,
+                null,
+                null
+        );
+        int scheduleIdIndex = cursor.getColumnIndexOrThrow(ScheduleEntry.COLUMN_NAME_SCHEDULE_ID);
+        String[] ids = new String[cursor.getCount()];
+        while (cursor.moveToNext()) {
+            ids[cursor.getPosition()] = cursor.getString(scheduleIdIndex);
+        }
+        cursor.close();
+        return ids;
+    }
+
     public int getPositionByScheduleId(String id) {
         String[] projection = {ScheduleEntry.COLUMN_NAME_SCHEDULE_ID};
         Cursor cursor = database.query(
@@ -404,38 +722,220 @@ public class DatabaseController extends SQLiteOpenHelper {
 
     @Override
     public void onUpgrade(SQLiteDatabase database, int oldVersion, int newVersion) {
-        if (oldVersion == 10 && newVersion == 11) {
-            database.execSQL(SQL_CREATE_CALENDAR_ENTRIES);
-            return;
-        }
-        if (oldVersion == 9 && newVersion == 10) {
-            database.execSQL("DROP TABLE IF EXISTS " + LessonEntry.TABLE_NAME);
-            database.execSQL(SQL_CREATE_LESSON_ENTRIES);
-            return;
-        }
-        if (newVersion < 10) {
+        if (oldVersion < 9) {
             database.execSQL("DROP TABLE IF EXISTS fetched_dates");
             database.execSQL("DROP TABLE IF EXISTS " + ScheduleEntry.TABLE_NAME);
-            database.execSQL("DROP TABLE IF EXISTS " + LessonEntry.TABLE_NAME);
-
             database.execSQL(SQL_CREATE_SCHEDULE_ENTRIES);
-            database.execSQL(SQL_CREATE_LESSON_ENTRIES);
         }
+        if (oldVersion < 10) {
+            database.execSQL("DROP TABLE IF EXISTS " + LessonEntry.TABLE_NAME);
+            createLessonEntries(database);
+        }
+        if (oldVersion < 11) {
+            database.execSQL(SQL_CREATE_CALENDAR_ENTRIES);
+        }
+        if (oldVersion == 10 || oldVersion == 11) {
+            migrateLessonDates(database);
+        }
+        if (oldVersion == 11 || oldVersion == 12) {
+            // Existing events have no lesson id yet, they are replaced on the next sync
+            database.execSQL("ALTER TABLE " + CalendarRowsEntry.TABLE_NAME + " ADD COLUMN " +
+                    CalendarRowsEntry.COLUMN_NAME_LESSON_ID + " TEXT");
+            database.execSQL("ALTER TABLE " + CalendarRowsEntry.TABLE_NAME + " ADD COLUMN " +
+                    CalendarRowsEntry.COLUMN_NAME_SCHEDULE_ID + " TEXT");
+            database.execSQL("ALTER TABLE " + CalendarRowsEntry.TABLE_NAME + " ADD COLUMN " +
+                    CalendarRowsEntry.COLUMN_NAME_FINGERPRINT + " INTEGER");
+        }
+        if (oldVersion < 14) {
+            createNatschoolEntries(database);
+        }
+    }
+
+    /**
+     * Version 12 stores the date as a day number instead of a "yyyyMMdd" string and adds
+     * indexes. Lessons are copied over so hidden lessons stay hidden.
+     */
+    private void migrateLessonDates(SQLiteDatabase database) {
+        String date = LessonEntry.COLUMN_NAME_DATE;
+        String otherColumns = LessonEntry.COLUMN_NAME_LESSON_ID + "," +
+                LessonEntry.COLUMN_NAME_SUBJECT + "," +
+                LessonEntry.COLUMN_NAME_START_TIME + "," +
+                LessonEntry.COLUMN_NAME_END_TIME + "," +
+                LessonEntry.COLUMN_NAME_ROOM + "," +
+                LessonEntry.COLUMN_NAME_TEACHER + "," +
+                LessonEntry.COLUMN_NAME_CLASS_NAME + "," +
+                LessonEntry.COLUMN_NAME_SCHEDULE_ID + "," +
+                LessonEntry.COLUMN_NAME_SCHEDULE_TYPE + "," +
+                LessonEntry.COLUMN_NAME_VISIBLE;
+        String dayNumber = "CAST(julianday(substr(" + date + ",1,4) || '-' || substr(" + date +
+                ",5,2) || '-' || substr(" + date + ",7,2)) - 2440587.5 AS INTEGER)";
+
+        database.execSQL("ALTER TABLE " + LessonEntry.TABLE_NAME + " RENAME TO lessons_old");
+        createLessonEntries(database);
+        database.execSQL("INSERT INTO " + LessonEntry.TABLE_NAME + " (" + date + "," +
+                otherColumns + ") SELECT " + dayNumber + "," + otherColumns + " FROM lessons_old");
+        database.execSQL("DROP TABLE lessons_old");
+    }
+
+    private void addCalendarRow(CalendarRow row) throws SQLiteConstraintException {
+        database.insertOrThrow(CalendarRowsEntry.TABLE_NAME, null, getCalendarRowValues(row));
+    }
+
+    private void updateCalendarRow(CalendarRow row) {
+        String selection = CalendarRowsEntry.COLUMN_NAME_EVENT_ID + " = ?";
+        String[] selectionArgs = {Long.toString(row.getEventId())};
+        database.update(CalendarRowsEntry.TABLE_NAME, getCalendarRowValues(row), selection,
+                selectionArgs);
+    }
+
+    private void deleteCalendarRow(long eventId) {
+        String selection = CalendarRowsEntry.COLUMN_NAME_EVENT_ID + " = ?";
+        String[] selectionArgs = {Long.toString(eventId)};
+        database.delete(CalendarRowsEntry.TABLE_NAME, selection, selectionArgs);
     }
 
-    public void addCalendarRow(long id) throws SQLiteConstraintException {
+    private static ContentValues getCalendarRowValues(CalendarRow row) {
         ContentValues values = new ContentValues();
-        values.put(CalendarRowsEntry.COLUMN_NAME_EVENT_ID, id);
-        database.insertOrThrow(CalendarRowsEntry.TABLE_NAME, null, values);
+        values.put(CalendarRowsEntry.COLUMN_NAME_EVENT_ID, row.getEventId());
+        values.put(CalendarRowsEntry.COLUMN_NAME_LESSON_ID, row.getLessonId());
+        values.put(CalendarRowsEntry.COLUMN_NAME_SCHEDULE_ID, row.getScheduleId());
+        values.put(CalendarRowsEntry.COLUMN_NAME_FINGERPRINT, row.getFingerprint());
+        return values;
     }
 
-    public void deleteAllCalendarRows() throws SQLiteConstraintException {
-        database.delete(CalendarRowsEntry.TABLE_NAME, null, null);
+    /**
+     * Records the result of a calendar sync in a single transaction, null entries are skipped
+     */
+    public void saveCalendarRowChanges(List<CalendarRow> added, List<CalendarRow> updated,
+                                       List<CalendarRow> removed) {
+        database.beginTransactionNonExclusive();
+        try {
+            for (CalendarRow row : removed) {
+                deleteCalendarRow(row.getEventId());
+            }
+            for (CalendarRow row : updated) {
+                if (row != null) {
+                    updateCalendarRow(row);
+                }
+            }
+            for (CalendarRow row : added) {
+                if (row != null) {
+                    addCalendarRow(row);
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
     }
 
-    public long[] getCalendarRows() throws SQLiteConstraintException {
+    /**
+     * @return the cached contents of a folder, or null if it was never cached. Parent id -1
+     * is the root of a study route, study route id -1 the list of study routes.
+     */
+    public NatschoolFolder getNatschoolFolder(int studyRouteId, int parentId) {
+        String[] selectionArgs = {Integer.toString(studyRouteId), Integer.toString(parentId)};
+        Cursor cursor = database.query(
+                NatschoolFolderEntry.TABLE_NAME,
+                new String[]{NatschoolFolderEntry.COLUMN_NAME_FETCH_TIME},
+                NatschoolFolderEntry.COLUMN_NAME_STUDY_ROUTE_ID + " = ? AND " +
+                        NatschoolFolderEntry.COLUMN_NAME_PARENT_ID + " = ?",
+                selectionArgs,
+                null,
+                null,
+                null
+        );
+        if (!cursor.moveToFirst()) {
+            cursor.close();
+            return null;
+        }
+        long fetchTime = cursor.getLong(0);
+        cursor.close();
+
         String[] projection = {
-                CalendarRowsEntry.COLUMN_NAME_EVENT_ID
+                NatschoolContentEntry.COLUMN_NAME_CONTENT_ID,
+                NatschoolContentEntry.COLUMN_NAME_NAME,
+                NatschoolContentEntry.COLUMN_NAME_STUDY_ROUTE_ITEM_ID,
+                NatschoolContentEntry.COLUMN_NAME_TYPE,
+                NatschoolContentEntry.COLUMN_NAME_URL,
+                NatschoolContentEntry.COLUMN_NAME_IMAGE_URL
+        };
+        cursor = database.query(
+                NatschoolContentEntry.TABLE_NAME,
+                projection,
+                NatschoolContentEntry.COLUMN_NAME_STUDY_ROUTE_ID + " = ? AND " +
+                        NatschoolContentEntry.COLUMN_NAME_PARENT_ID + " = ?",
+                selectionArgs,
+                null,
+                null,
+                NatschoolContentEntry._ID
+        );
+        List<NatschoolContent> contents = new ArrayList<>(cursor.getCount());
+        while (cursor.moveToNext()) {
+            NatschoolContent content = new NatschoolContent(cursor.getInt(0),
+                    cursor.getString(1), cursor.getInt(2), cursor.getInt(3),
+                    cursor.getString(4));
+            content.imageUrl = cursor.getString(5);
+            contents.add(content);
+        }
+        cursor.close();
+        return new NatschoolFolder(contents, fetchTime);
+    }
+
+    /**
+     * Replaces the cached contents of a folder
+     */
+    public void saveNatschoolFolder(int studyRouteId, int parentId,
+                                    List<NatschoolContent> contents) {
+        String selection = NatschoolContentEntry.COLUMN_NAME_STUDY_ROUTE_ID + " = ? AND " +
+                NatschoolContentEntry.COLUMN_NAME_PARENT_ID + " = ?";
+        String[] selectionArgs = {Integer.toString(studyRouteId), Integer.toString(parentId)};
+        database.beginTransactionNonExclusive();
+        try {
+            database.delete(NatschoolContentEntry.TABLE_NAME, selection, selectionArgs);
+            ContentValues values = new ContentValues();
+            for (NatschoolContent content : contents) {
+                values.clear();
+                values.put(NatschoolContentEntry.COLUMN_NAME_STUDY_ROUTE_ID, studyRouteId);
+                values.put(NatschoolContentEntry.COLUMN_NAME_PARENT_ID, parentId);
+                values.put(NatschoolContentEntry.COLUMN_NAME_CONTENT_ID, content.id);
+                values.put(NatschoolContentEntry.COLUMN_NAME_NAME, content.name);
+                values.put(NatschoolContentEntry.COLUMN_NAME_STUDY_ROUTE_ITEM_ID,
+                        content.studyRouteItemId);
+                values.put(NatschoolContentEntry.COLUMN_NAME_TYPE, content.type);
+                values.put(NatschoolContentEntry.COLUMN_NAME_URL, content.url);
+                values.put(NatschoolContentEntry.COLUMN_NAME_IMAGE_URL, content.imageUrl);
+                database.insert(NatschoolContentEntry.TABLE_NAME, null, values);
+            }
+            values.clear();
+            values.put(NatschoolFolderEntry.COLUMN_NAME_STUDY_ROUTE_ID, studyRouteId);
+            values.put(NatschoolFolderEntry.COLUMN_NAME_PARENT_ID, parentId);
+            values.put(NatschoolFolderEntry.COLUMN_NAME_FETCH_TIME, TimeUtils.currentTimeMillis());
+            database.insertWithOnConflict(NatschoolFolderEntry.TABLE_NAME, null, values,
+                    SQLiteDatabase.CONFLICT_REPLACE);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    public void deleteNatschoolFolders() {
+        database.beginTransactionNonExclusive();
+        try {
+            database.delete(NatschoolContentEntry.TABLE_NAME, null, null);
+            database.delete(NatschoolFolderEntry.TABLE_NAME, null, null);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    public CalendarRow[] getCalendarRows() throws SQLiteConstraintException {
+        String[] projection = {
+                CalendarRowsEntry.COLUMN_NAME_EVENT_ID,
+                CalendarRowsEntry.COLUMN_NAME_LESSON_ID,
+                CalendarRowsEntry.COLUMN_NAME_SCHEDULE_ID,
+                CalendarRowsEntry.COLUMN_NAME_FINGERPRINT
         };
         Cursor cursor = database.query(
                 CalendarRowsEntry.TABLE_NAME,
@@ -446,15 +946,104 @@ public class DatabaseController extends SQLiteOpenHelper {
                 null,
                 null
         );
-        long[] eventIds = new long[cursor.getCount()];
+        int eventIdIndex = cursor.getColumnIndexOrThrow(CalendarRowsEntry.COLUMN_NAME_EVENT_ID);
+        int lessonIdIndex = cursor.getColumnIndexOrThrow(CalendarRowsEntry.COLUMN_NAME_LESSON_ID);
+        int scheduleIdIndex = cursor.getColumnIndexOrThrow(CalendarRowsEntry.COLUMN_NAME_SCHEDULE_ID);
+        int fingerprintIndex = cursor.getColumnIndexOrThrow(CalendarRowsEntry.COLUMN_NAME_FINGERPRINT);
+        CalendarRow[] rows = new CalendarRow[cursor.getCount()];
         int i = 0;
         while (cursor.moveToNext()) {
-            eventIds[i] = cursor.getLong(cursor.getColumnIndex(CalendarRowsEntry
-                    .COLUMN_NAME_EVENT_ID));
+            CalendarRow row = new CalendarRow();
+            row.setEventId(cursor.getLong(eventIdIndex));
+            row.setLessonId(cursor.getString(lessonIdIndex));
+            row.setScheduleId(cursor.getString(scheduleIdIndex));
+            row.setFingerprint(cursor.getInt(fingerprintIndex));
+            rows[i] = row;
             i++;
         }
         cursor.close();
-        return eventIds;
+        return rows;
+    }
+
+    /**
+     * Get the lessons of all schedules from the start of this week, hidden ones included
+     */
+    Lesson[] getLessonsForCalendar() {
+        int[] weekDayNumbers = TimeUtils.getWeekDayNumbers(TimeUtils.now());
+        String selection = LessonEntry.COLUMN_NAME_DATE + " >= ?";
+        String[] selectionArgs = {Integer.toString(weekDayNumbers[0])};
+
+        Cursor cursor = database.query(
+                LessonEntry.TABLE_NAME,
+                LESSON_PROJECTION,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                null
+        );
+        return mapLessons(cursor);
+    }
+
+    public interface Callback<T> {
+
+        void onResult(T result);
+    }
+
+    private interface Query<T> {
+
+        T run(DatabaseController controller);
+    }
+
+    /**
+     * Resolves the column indices once per cursor instead of once per row
+     */
+    private static class LessonMapper {
+
+        private final int lessonIdIndex;
+        private final int subjectIndex;
+        private final int dateIndex;
+        private final int startTimeIndex;
+        private final int endTimeIndex;
+        private final int roomIndex;
+        private final int teacherIndex;
+        private final int classNameIndex;
+        private final int scheduleIdIndex;
+        private final int scheduleTypeIndex;
+        private final int visibleIndex;
+
+        LessonMapper(Cursor cursor) {
+            lessonIdIndex = cursor.getColumnIndexOrThrow(LessonEntry.COLUMN_NAME_LESSON_ID);
+            subjectIndex = cursor.getColumnIndexOrThrow(LessonEntry.COLUMN_NAME_SUBJECT);
+            dateIndex = cursor.getColumnIndexOrThrow(LessonEntry.COLUMN_NAME_DATE);
+            startTimeIndex = cursor.getColumnIndexOrThrow(LessonEntry.COLUMN_NAME_START_TIME);
+            endTimeIndex = cursor.getColumnIndexOrThrow(LessonEntry.COLUMN_NAME_END_TIME);
+            roomIndex = cursor.getColumnIndexOrThrow(LessonEntry.COLUMN_NAME_ROOM);
+            teacherIndex = cursor.getColumnIndexOrThrow(LessonEntry.COLUMN_NAME_TEACHER);
+            classNameIndex = cursor.getColumnIndexOrThrow(LessonEntry.COLUMN_NAME_CLASS_NAME);
+            scheduleIdIndex = cursor.getColumnIndexOrThrow(LessonEntry.COLUMN_NAME_SCHEDULE_ID);
+            scheduleTypeIndex = cursor.getColumnIndexOrThrow(LessonEntry.COLUMN_NAME_SCHEDULE_TYPE);
+            visibleIndex = cursor.getColumnIndexOrThrow(LessonEntry.COLUMN_NAME_VISIBLE);
+        }
+
+        int getDayNumber(Cursor cursor) {
+            return cursor.getInt(dateIndex);
+        }
+
+        Lesson map(Cursor cursor) {
+            Lesson lesson = new Lesson();
+            lesson.setId(cursor.getString(lessonIdIndex));
+            lesson.setSubject(cursor.getString(subjectIndex));
+            lesson.setStartTime(new Date(cursor.getLong(startTimeIndex)));
+            lesson.setEndTime(new Date(cursor.getLong(endTimeIndex)));
+            lesson.setRoom(cursor.getString(roomIndex));
+            lesson.setTeacher(cursor.getString(teacherIndex));
+            lesson.setClassName(cursor.getString(classNameIndex));
+            lesson.setScheduleId(cursor.getString(scheduleIdIndex));
+            lesson.setScheduleType(SCHEDULE_TYPES[cursor.getInt(scheduleTypeIndex)]);
+            lesson.setVisible(cursor.getInt(visibleIndex) == 1);
+            return lesson;
+        }
     }
 
     private class ScheduleEntry implements BaseColumns {
@@ -482,5 +1071,27 @@ public class DatabaseController extends SQLiteOpenHelper {
     private class CalendarRowsEntry implements BaseColumns {
         static final String TABLE_NAME = "calendar_rows";
         static final String COLUMN_NAME_EVENT_ID = "event_id";
+        static final String COLUMN_NAME_LESSON_ID = "lesson_id";
+        static final String COLUMN_NAME_SCHEDULE_ID = "schedule_id";
+        static final String COLUMN_NAME_FINGERPRINT = "fingerprint";
+    }
+
+    private class NatschoolFolderEntry implements BaseColumns {
+        static final String TABLE_NAME = "natschool_folders";
+        static final String COLUMN_NAME_STUDY_ROUTE_ID = "study_route_id";
+        static final String COLUMN_NAME_PARENT_ID = "parent_id";
+        static final String COLUMN_NAME_FETCH_TIME = "fetch_time";
+    }
+
+    private class NatschoolContentEntry implements BaseColumns {
+        static final String TABLE_NAME = "natschool_contents";
+        static final String COLUMN_NAME_STUDY_ROUTE_ID = "study_route_id";
+        static final String COLUMN_NAME_PARENT_ID = "parent_id";
+        static final String COLUMN_NAME_CONTENT_ID = "content_id";
+        static final String COLUMN_NAME_NAME = "name";
+        static final String COLUMN_NAME_STUDY_ROUTE_ITEM_ID = "study_route_item_id";
+        static final String COLUMN_NAME_TYPE = "type";
+        static final String COLUMN_NAME_URL = "url";
+        static final String COLUMN_NAME_IMAGE_URL = "image_url";
     }
 }
@@ -25,15 +25,10 @@
 package com.giovanniterlingen.windesheim.controllers;
 
 import android.app.Activity;
-import android.app.DownloadManager;
 import android.content.ActivityNotFoundException;
-import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.text.format.Formatter;
-import android.util.SparseArray;
 
 import androidx.core.content.FileProvider;
 
@@ -47,6 +42,7 @@ import com.giovanniterlingen.windesheim.view.NatschoolActivity;
 import java.io.File;
 import java.lang.ref.WeakReference;
 import java.net.URI;
+import java.net.URL;
 
 /**
  * A schedule app for students and teachers of Windesheim
@@ -54,18 +50,26 @@ import java.net.URI;
  * @author Giovanni Terlingen
  * @author Thomas Visch
  */
-public class DownloadController extends AsyncTask<String, Object, String>
-        implements NotificationCenter.NotificationCenterDelegate {
+public class DownloadController implements DownloadEngine.Listener, DownloadTracker.Listener {
 
-    public static final SparseArray<Download> activeDownloads = new SparseArray<>();
+    private static final String CANCELLED = "cancelled";
+    private static final String PARTIAL_DIRECTORY = "downloads";
     private final WeakReference<Activity> weakReference;
     private final String url;
     private final int studyRouteId;
     private final int contentId;
     private final int adapterPosition;
-    private DownloadManager downloadManager;
-    private long currentDownloadId = -1;
-
+    private Download download;
+    private volatile DownloadEngine engine;
+    private volatile boolean cancelled;
+    private volatile long downloadedBytes;
+    private volatile long totalBytes;
+    private boolean finished;
+    private int lastProgress = -1;
+
+    /**
+     * @param activity opens the file when it is downloaded, null to only download it
+     */
     public DownloadController(Activity activity, String url, int studyRouteId, int contentId,
                               int adapterPosition) {
         this.weakReference = new WeakReference<>(activity);
@@ -75,120 +79,128 @@ public class DownloadController extends AsyncTask<String, Object, String>
         this.adapterPosition = adapterPosition;
     }
 
-    @Override
-    protected void onPreExecute() {
-        super.onPreExecute();
-        NotificationCenter.getInstance().addObserver(this,
-                NotificationCenter.downloadCancelled);
+    public boolean start() {
+        return DownloadQueue.getInstance().enqueue(this, DownloadQueue.PRIORITY_HIGH);
+    }
+
+    int getContentId() {
+        return contentId;
+    }
+
+    void onQueued() {
         NotificationCenter.getInstance().postNotificationName(NotificationCenter.downloadPending,
                 studyRouteId, adapterPosition, contentId);
     }
 
-    @Override
-    protected String doInBackground(final String... strings) {
-        Activity activity = weakReference.get();
-        if (activity == null || activity.isFinishing()) {
-            return null;
+    /**
+     * Runs on one of the download queue threads, the progress is stored in the download
+     */
+    void download(Download download) {
+        this.download = download;
+        if (cancelled) {
+            return;
         }
-
+        String result;
         try {
-            activeDownloads.put(contentId, new Download());
-            int lastSlash = url.lastIndexOf('/');
-            String fileName = url.substring(lastSlash + 1);
-
-            File directory = new File(activity.getExternalFilesDir(null), ApplicationLoader
-                    .applicationContext.getResources().getString(R.string.app_name));
+            File file = getDestination(url);
+            File directory = file.getParentFile();
             if (!directory.exists()) {
                 directory.mkdirs();
             }
-            File file = new File(directory, fileName);
-
-            final String encodedUrl = new URI("https", "elo.windesheim.nl", url,
-                    null).toString();
-
-            downloadManager = (DownloadManager) activity.getSystemService(Context.DOWNLOAD_SERVICE);
-            DownloadManager.Request request = new DownloadManager.Request(Uri.parse(encodedUrl));
-            request.addRequestHeader("Cookie", CookieUtils.getNatSchoolCookie())
-                    .setTitle(fileName)
-                    .setDescription(activity.getResources().getString(R.string.downloading))
-                    .setDestinationUri(Uri.fromFile(file));
-
-            currentDownloadId = downloadManager.enqueue(request);
-            while (true) {
-                if (isCancelled()) {
-                    return "cancelled";
-                }
-                DownloadManager.Query query = new DownloadManager.Query();
-                query.setFilterById(currentDownloadId);
-                Cursor cursor = downloadManager.query(query);
-                if (cursor.getCount() == 0) {
-                    return "cancelled";
-                }
-                cursor.moveToFirst();
-                int status = cursor.getInt(cursor.getColumnIndex(DownloadManager.COLUMN_STATUS));
-                if (status == DownloadManager.STATUS_SUCCESSFUL ||
-                        status == DownloadManager.STATUS_FAILED) {
-                    break;
-                }
-                if (status == DownloadManager.STATUS_PAUSED ||
-                        status == DownloadManager.STATUS_PENDING) {
-                    // paused, reset download state to pending
-                    activeDownloads.put(contentId, new Download());
-                    NotificationCenter.getInstance()
-                            .postNotificationName(NotificationCenter.downloadPending, studyRouteId,
-                                    adapterPosition, contentId);
-                    Thread.sleep(100);
-                    continue;
-                }
-                long downloaded = cursor.getLong(cursor.getColumnIndex(DownloadManager.COLUMN_BYTES_DOWNLOADED_SO_FAR));
-                long total = cursor.getLong(cursor.getColumnIndex(DownloadManager.COLUMN_TOTAL_SIZE_BYTES));
-                cursor.close();
-                if (total > 0 && downloaded > 0) {
-                    int progress = (int) (downloaded * 100 / total);
-                    String s = Formatter.formatFileSize(activity, downloaded) + "/"
-                            + Formatter.formatFileSize(activity, total);
-                    activeDownloads.get(contentId).setProgress(progress);
-                    activeDownloads.get(contentId).setProgressString(s);
-                    publishProgress(progress, s);
-                }
-                Thread.sleep(100);
+            File partialDirectory = new File(ApplicationLoader.applicationContext
+                    .getExternalCacheDir(), PARTIAL_DIRECTORY);
+            if (!partialDirectory.exists()) {
+                partialDirectory.mkdirs();
+            }
+
+            URL encodedUrl = new URI("https", "elo.windesheim.nl", url, null).toURL();
+            engine = new DownloadEngine(encodedUrl, CookieUtils.getNatSchoolCookie(), file,
+                    partialDirectory);
+            if (cancelled) {
+                // Cancelled before the engine was there to stop
+                engine.cancel();
+            }
+            DownloadTracker.getInstance().track(this);
+            try {
+                engine.download(this);
+            } finally {
+                DownloadTracker.getInstance().untrack(this);
             }
-            return file.getAbsolutePath();
+            result = file.getAbsolutePath();
         } catch (Exception e) {
-            return null;
+            if (cancelled && engine != null) {
+                engine.deletePartialFile();
+            }
+            // A failed download keeps its partial file, so trying again resumes it
+            result = cancelled ? CANCELLED : null;
         }
+        final String finalResult = result;
+        ApplicationLoader.runOnUIThread(new Runnable() {
+            @Override
+            public void run() {
+                finish(finalResult);
+            }
+        });
+    }
+
+    /**
+     * @return the file in the downloads directory a content url is saved to
+     */
+    public static File getDestination(String url) {
+        int lastSlash = url.lastIndexOf('/');
+        String fileName = url.substring(lastSlash + 1);
+
+        File directory = new File(ApplicationLoader.applicationContext.getExternalFilesDir(null),
+                ApplicationLoader.applicationContext.getResources().getString(R.string.app_name));
+        return new File(directory, fileName);
     }
 
+    /**
+     * Called by the engine threads for every chunk, only remembers the numbers. The tracker
+     * publishes them.
+     */
     @Override
-    protected void onProgressUpdate(Object... progress) {
-        super.onProgressUpdate(progress);
-        NotificationCenter.getInstance()
-                .postNotificationName(NotificationCenter.downloadUpdated, studyRouteId,
-                        adapterPosition, contentId, progress[0], progress[1]);
+    public void onProgress(long downloaded, long total) {
+        totalBytes = total;
+        downloadedBytes = downloaded;
     }
 
     @Override
-    protected void onCancelled(String s) {
-        super.onCancelled(s);
-        if (currentDownloadId > -1 && downloadManager != null) {
-            downloadManager.remove(currentDownloadId);
+    public boolean publishProgress() {
+        long total = totalBytes;
+        long downloaded = downloadedBytes;
+        if (total <= 0) {
+            return false;
+        }
+        int progress = (int) (downloaded * 100 / total);
+        if (progress == lastProgress) {
+            return false;
         }
-        onPostExecute("cancelled");
+        lastProgress = progress;
+        String s = Formatter.formatFileSize(ApplicationLoader.applicationContext, downloaded) + "/"
+                + Formatter.formatFileSize(ApplicationLoader.applicationContext, total);
+        download.setProgress(progress);
+        download.setProgressString(s);
+        NotificationCenter.getInstance()
+                .postNotificationName(NotificationCenter.downloadUpdated, studyRouteId,
+                        adapterPosition, contentId, progress, s);
+        return true;
     }
 
-    @Override
-    protected void onPostExecute(final String result) {
-        activeDownloads.remove(contentId);
-        NotificationCenter.getInstance().removeObserver(this,
-                NotificationCenter.downloadCancelled);
+    private void finish(final String result) {
+        if (finished) {
+            return;
+        }
+        finished = true;
         NotificationCenter.getInstance().postNotificationName(NotificationCenter.downloadFinished,
-                studyRouteId, adapterPosition, contentId);
+                studyRouteId, adapterPosition, contentId,
+                result != null && !CANCELLED.equals(result));
 
         Activity activity = weakReference.get();
         if (activity == null || activity.isFinishing()) {
             return;
         }
-        if ("cancelled".equals(result)) {
+        if (CANCELLED.equals(result)) {
             ((NatschoolActivity) activity).downloadCanceled();
             return;
         }
@@ -216,10 +228,17 @@ public class DownloadController extends AsyncTask<String, Object, String>
         }
     }
 
-    @Override
-    public void didReceivedNotification(int id, Object... args) {
-        if (NotificationCenter.downloadCancelled == id && contentId == (int) args[0]) {
-            this.cancel(true);
+    void cancel() {
+        cancelled = true;
+        DownloadEngine engine = this.engine;
+        if (engine != null) {
+            engine.cancel();
         }
+        ApplicationLoader.runOnUIThread(new Runnable() {
+            @Override
+            public void run() {
+                finish(CANCELLED);
+            }
+        });
     }
 }
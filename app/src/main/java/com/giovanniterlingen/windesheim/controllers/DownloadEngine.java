@@ -0,0 +1,538 @@
+/**
+ * Copyright (c) 2019 Giovanni Terlingen
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ **/
+package com.giovanniterlingen.windesheim.controllers;
+
+import com.giovanniterlingen.windesheim.utils.HttpUtils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A schedule app for students and teachers of Windesheim
+ * <p>
+ * Downloads a single file into a partial file in a separate directory. An interrupted
+ * download continues where it stopped using HTTP range requests, large files are split
+ * into segments which are downloaded over separate connections. The ETag or Last-Modified
+ * date is kept next to the partial file and sent as If-Range, so a file that changed on the
+ * server in the meantime is downloaded again instead of being pieced together.
+ *
+ * @author Giovanni Terlingen
+ */
+class DownloadEngine {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int READ_TIMEOUT = 30000;
+    private static final long SEGMENT_THRESHOLD = 8 * 1024 * 1024;
+    private static final int MAX_SEGMENTS = 3;
+    // Segment positions are saved every so often, so a crash does not lose all progress
+    private static final long STATE_SAVE_INTERVAL = 512 * 1024;
+    private static final int SEGMENT_THREAD_COUNT = 4;
+    private static final String PART_SUFFIX = ".part";
+    private static final String STATE_SUFFIX = ".state";
+    private static final String VALIDATOR_SUFFIX = ".validator";
+    private static final ThreadPoolExecutor segmentExecutor;
+
+    static {
+        segmentExecutor = new ThreadPoolExecutor(SEGMENT_THREAD_COUNT, SEGMENT_THREAD_COUNT,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        segmentExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private final URL url;
+    private final String cookie;
+    private final File destination;
+    private final File partFile;
+    private final File stateFile;
+    private final File validatorFile;
+    private final List<HttpURLConnection> connections = new ArrayList<>();
+    private final AtomicLong downloaded = new AtomicLong();
+    private volatile boolean stopped;
+    // Set when a segment failed, so the other segments stop as well
+    private volatile boolean failed;
+    private long total = -1;
+    private String validator;
+    private Listener listener;
+
+    /**
+     * @param partialDirectory keeps partial files out of the downloads list, it should be on
+     *                         the same storage as the destination
+     */
+    DownloadEngine(URL url, String cookie, File destination, File partialDirectory) {
+        this.url = url;
+        this.cookie = cookie;
+        this.destination = destination;
+        this.partFile = new File(partialDirectory, destination.getName() + PART_SUFFIX);
+        this.stateFile = new File(partialDirectory, destination.getName() + PART_SUFFIX +
+                STATE_SUFFIX);
+        this.validatorFile = new File(partialDirectory, destination.getName() + PART_SUFFIX +
+                VALIDATOR_SUFFIX);
+    }
+
+    /**
+     * Downloads the file to its destination, blocks until it is complete. When this fails,
+     * the partial file is kept so calling it again resumes the download.
+     */
+    void download(Listener listener) throws IOException {
+        this.listener = listener;
+        validator = readValidator();
+        Segment[] segments = readState();
+        if (segments != null) {
+            try {
+                downloadSegments(segments);
+            } catch (FileChangedException e) {
+                deletePartialFile();
+                failed = false;
+                total = -1;
+                downloadSingle();
+            }
+        } else {
+            downloadSingle();
+        }
+        if (!partFile.renameTo(destination)) {
+            throw new IOException("Could not move " + partFile + " to " + destination);
+        }
+        stateFile.delete();
+        validatorFile.delete();
+    }
+
+    /**
+     * Stops the download as soon as possible, download will throw an exception
+     */
+    void cancel() {
+        stopped = true;
+        disconnect();
+    }
+
+    private void disconnect() {
+        synchronized (connections) {
+            for (HttpURLConnection connection : connections) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    void deletePartialFile() {
+        partFile.delete();
+        stateFile.delete();
+        validatorFile.delete();
+        validator = null;
+    }
+
+    private void downloadSingle() throws IOException {
+        long offset = partFile.length();
+        if (offset > 0 && validator == null) {
+            // Nothing tells us the partial file is still part of the same file
+            deletePartialFile();
+            offset = 0;
+        }
+        HttpURLConnection connection = open(offset, -1);
+        try {
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_PARTIAL) {
+                total = getTotalLength(connection);
+                if (offset == 0) {
+                    saveValidator(getValidator(connection));
+                }
+                if (offset == 0 && total >= SEGMENT_THRESHOLD && validator != null) {
+                    // The server supports ranges, so split the file over several connections
+                    connection.disconnect();
+                    downloadSegments(createSegments(total));
+                    return;
+                }
+            } else if (status == HttpURLConnection.HTTP_OK) {
+                // Ranges are not supported or the file changed, start over
+                offset = 0;
+                total = getContentLength(connection);
+                saveValidator(getValidator(connection));
+            } else if (status == 416 && offset > 0 && getTotalLength(connection) == offset) {
+                // The partial file is complete already
+                return;
+            } else {
+                if (status == 416) {
+                    deletePartialFile();
+                }
+                throw new IOException("Unexpected response code " + status);
+            }
+
+            Segment segment = new Segment(offset, total > 0 ? total - 1 : Long.MAX_VALUE,
+                    offset);
+            downloaded.set(offset);
+            RandomAccessFile file = new RandomAccessFile(partFile, "rw");
+            try {
+                file.setLength(offset);
+                transfer(connection, file.getChannel(), segment, null);
+            } finally {
+                file.close();
+            }
+            if (total > 0 && segment.position < total) {
+                throw new IOException("Connection closed before the download was complete");
+            }
+        } finally {
+            release(connection);
+        }
+    }
+
+    private Segment[] createSegments(long length) {
+        Segment[] segments = new Segment[MAX_SEGMENTS];
+        long size = length / MAX_SEGMENTS;
+        for (int i = 0; i < MAX_SEGMENTS; i++) {
+            long start = i * size;
+            long end = i == MAX_SEGMENTS - 1 ? length - 1 : start + size - 1;
+            segments[i] = new Segment(start, end, start);
+        }
+        return segments;
+    }
+
+    private void downloadSegments(final Segment[] segments) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(partFile, "rw");
+        try {
+            if (file.length() != total) {
+                file.setLength(total);
+            }
+            final FileChannel channel = file.getChannel();
+            long done = 0;
+            for (Segment segment : segments) {
+                done += segment.position - segment.start;
+            }
+            downloaded.set(done);
+            saveState(segments);
+
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 1; i < segments.length; i++) {
+                final Segment segment = segments[i];
+                futures.add(segmentExecutor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        downloadSegment(channel, segment, segments);
+                        return null;
+                    }
+                }));
+            }
+            IOException error = null;
+            try {
+                downloadSegment(channel, segments[0], segments);
+            } catch (IOException e) {
+                error = e;
+                // One failed segment fails the download, stop the others as well
+                fail();
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (error == null || (e.getCause() instanceof FileChangedException &&
+                            !(error instanceof FileChangedException))) {
+                        error = e.getCause() instanceof IOException ?
+                                (IOException) e.getCause() : new IOException(e.getCause());
+                        fail();
+                    }
+                } catch (InterruptedException e) {
+                    cancel();
+                    error = new InterruptedIOException("Interrupted while downloading");
+                }
+            }
+            saveState(segments);
+            if (error != null) {
+                throw error;
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private void downloadSegment(FileChannel channel, Segment segment, Segment[] segments)
+            throws IOException {
+        if (segment.position > segment.end) {
+            return;
+        }
+        HttpURLConnection connection = open(segment.position, segment.end);
+        try {
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_OK) {
+                // If-Range did not match, the whole new file is sent instead of the range
+                connection.disconnect();
+                throw new FileChangedException();
+            }
+            if (status != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("Unexpected response code " + status);
+            }
+            transfer(connection, channel, segment, segments);
+            if (segment.position <= segment.end) {
+                throw new IOException("Connection closed before the segment was complete");
+            }
+        } finally {
+            release(connection);
+        }
+    }
+
+    private void transfer(HttpURLConnection connection, FileChannel channel, Segment segment,
+                          Segment[] segments) throws IOException {
+        InputStream inputStream = HttpUtils.getInputStream(connection);
+        try {
+            byte[] bytes = new byte[BUFFER_SIZE];
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            long unsaved = 0;
+            int read;
+            while ((read = inputStream.read(bytes)) != -1) {
+                if (stopped || failed) {
+                    throw new InterruptedIOException("Download stopped");
+                }
+                buffer.clear();
+                buffer.limit(read);
+                while (buffer.hasRemaining()) {
+                    segment.position += channel.write(buffer, segment.position);
+                }
+                listener.onProgress(downloaded.addAndGet(read), total);
+                unsaved += read;
+                if (segments != null && unsaved >= STATE_SAVE_INTERVAL) {
+                    saveState(segments);
+                    unsaved = 0;
+                }
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private void fail() {
+        failed = true;
+        disconnect();
+    }
+
+    private HttpURLConnection open(long start, long end) throws IOException {
+        if (stopped || failed) {
+            throw new InterruptedIOException("Download stopped");
+        }
+        HttpURLConnection connection = HttpUtils.openConnection(url, "GET");
+        connection.setReadTimeout(READ_TIMEOUT);
+        // Ranges only make sense on the bytes as they are stored
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        connection.setRequestProperty("Cookie", cookie);
+        connection.setRequestProperty("Range", "bytes=" + start + "-" +
+                (end >= 0 ? Long.toString(end) : ""));
+        if (validator != null) {
+            // Only send the range when the file is still the same, the whole file otherwise
+            connection.setRequestProperty("If-Range", validator);
+        }
+        synchronized (connections) {
+            connections.add(connection);
+        }
+        return connection;
+    }
+
+    private void release(HttpURLConnection connection) {
+        synchronized (connections) {
+            connections.remove(connection);
+        }
+        if (stopped || failed) {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * @return a strong ETag, or else the Last-Modified date, or null if there is neither
+     */
+    private String getValidator(HttpURLConnection connection) {
+        String eTag = connection.getHeaderField("ETag");
+        if (eTag != null && !eTag.startsWith("W/")) {
+            return eTag;
+        }
+        // Weak ETags can't be used with If-Range
+        return connection.getHeaderField("Last-Modified");
+    }
+
+    /**
+     * @return the total length from a Content-Range header like "bytes 0-99/1234"
+     */
+    private long getTotalLength(HttpURLConnection connection) {
+        String contentRange = connection.getHeaderField("Content-Range");
+        if (contentRange == null) {
+            return -1;
+        }
+        int slash = contentRange.lastIndexOf('/');
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private long getContentLength(HttpURLConnection connection) {
+        String contentLength = connection.getHeaderField("Content-Length");
+        if (contentLength == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private Segment[] readState() {
+        if (!stateFile.exists()) {
+            return null;
+        }
+        DataInputStream inputStream = null;
+        try {
+            if (!partFile.exists()) {
+                throw new IOException("Partial file is missing");
+            }
+            if (validator == null) {
+                throw new IOException("Can't tell whether the file changed");
+            }
+            inputStream = new DataInputStream(new FileInputStream(stateFile));
+            total = inputStream.readLong();
+            Segment[] segments = new Segment[inputStream.readInt()];
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = new Segment(inputStream.readLong(), inputStream.readLong(),
+                        inputStream.readLong());
+            }
+            return segments;
+        } catch (IOException e) {
+            // Unusable state, start over
+            total = -1;
+            deletePartialFile();
+            return null;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    //
+                }
+            }
+        }
+    }
+
+    private synchronized void saveState(Segment[] segments) throws IOException {
+        File tempFile = new File(stateFile.getPath() + ".tmp");
+        DataOutputStream outputStream = new DataOutputStream(new FileOutputStream(tempFile));
+        try {
+            outputStream.writeLong(total);
+            outputStream.writeInt(segments.length);
+            for (Segment segment : segments) {
+                outputStream.writeLong(segment.start);
+                outputStream.writeLong(segment.end);
+                outputStream.writeLong(segment.position);
+            }
+        } finally {
+            outputStream.close();
+        }
+        if (!tempFile.renameTo(stateFile)) {
+            throw new IOException("Could not save download state");
+        }
+    }
+
+    private String readValidator() {
+        if (!validatorFile.exists()) {
+            return null;
+        }
+        DataInputStream inputStream = null;
+        try {
+            inputStream = new DataInputStream(new FileInputStream(validatorFile));
+            return inputStream.readUTF();
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    //
+                }
+            }
+        }
+    }
+
+    private void saveValidator(String newValidator) throws IOException {
+        validator = newValidator;
+        if (newValidator == null) {
+            validatorFile.delete();
+            return;
+        }
+        File tempFile = new File(validatorFile.getPath() + ".tmp");
+        DataOutputStream outputStream = new DataOutputStream(new FileOutputStream(tempFile));
+        try {
+            outputStream.writeUTF(newValidator);
+        } finally {
+            outputStream.close();
+        }
+        if (!tempFile.renameTo(validatorFile)) {
+            throw new IOException("Could not save download validator");
+        }
+    }
+
+    interface Listener {
+
+        /**
+         * Called from the downloading threads, total is -1 when it is unknown
+         */
+        void onProgress(long downloaded, long total);
+    }
+
+    /**
+     * The file on the server is not the one the partial file belongs to anymore
+     */
+    private static class FileChangedException extends IOException {
+
+        FileChangedException() {
+            super("File changed on the server");
+        }
+    }
+
+    private static class Segment {
+
+        private final long start;
+        private final long end;
+        private volatile long position;
+
+        Segment(long start, long end, long position) {
+            this.start = start;
+            this.end = end;
+            this.position = position;
+        }
+    }
+}
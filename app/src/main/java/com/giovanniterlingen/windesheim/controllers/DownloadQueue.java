@@ -0,0 +1,212 @@
+/**
+ * Copyright (c) 2019 Giovanni Terlingen
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ **/
+package com.giovanniterlingen.windesheim.controllers;
+
+import android.util.SparseArray;
+
+import com.giovanniterlingen.windesheim.ApplicationLoader;
+import com.giovanniterlingen.windesheim.DownloadService;
+import com.giovanniterlingen.windesheim.NotificationCenter;
+import com.giovanniterlingen.windesheim.models.Download;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A schedule app for students and teachers of Windesheim
+ * <p>
+ * Runs a limited number of downloads at the same time. Waiting downloads start by
+ * priority, then in the order they were added. Every content item is queued at most once.
+ * While anything is queued, {@link DownloadService} keeps the process in the foreground.
+ *
+ * @author Giovanni Terlingen
+ */
+public class DownloadQueue implements NotificationCenter.NotificationCenterDelegate {
+
+    public static final int PRIORITY_HIGH = 0;
+    public static final int PRIORITY_LOW = 1;
+    private static final int DEFAULT_MAX_CONCURRENT_DOWNLOADS = 2;
+    private static volatile DownloadQueue Instance = null;
+    private final SparseArray<Task> tasks = new SparseArray<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final ThreadPoolExecutor executor;
+
+    private DownloadQueue() {
+        executor = new ThreadPoolExecutor(DEFAULT_MAX_CONCURRENT_DOWNLOADS,
+                DEFAULT_MAX_CONCURRENT_DOWNLOADS, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        ApplicationLoader.runOnUIThread(new Runnable() {
+            @Override
+            public void run() {
+                NotificationCenter.getInstance().addObserver(DownloadQueue.this,
+                        NotificationCenter.downloadCancelled);
+            }
+        });
+    }
+
+    public static DownloadQueue getInstance() {
+        DownloadQueue localInstance = Instance;
+        if (localInstance == null) {
+            synchronized (DownloadQueue.class) {
+                localInstance = Instance;
+                if (localInstance == null) {
+                    Instance = localInstance = new DownloadQueue();
+                }
+            }
+        }
+        return localInstance;
+    }
+
+    /**
+     * @return false when the content is already queued or downloading
+     */
+    public boolean enqueue(DownloadController controller, int priority) {
+        Task task;
+        synchronized (tasks) {
+            if (tasks.get(controller.getContentId()) != null) {
+                return false;
+            }
+            task = new Task(controller, priority, sequence.getAndIncrement());
+            tasks.put(controller.getContentId(), task);
+        }
+        controller.onQueued();
+        executor.execute(task);
+        DownloadService.start();
+        NotificationCenter.getInstance()
+                .postNotificationName(NotificationCenter.downloadQueueUpdated);
+        return true;
+    }
+
+    public void cancel(int contentId) {
+        Task task;
+        synchronized (tasks) {
+            task = tasks.get(contentId);
+            if (task == null) {
+                return;
+            }
+            if (executor.remove(task)) {
+                // Never started, so it will not remove itself
+                tasks.remove(contentId);
+                NotificationCenter.getInstance()
+                        .postNotificationName(NotificationCenter.downloadQueueUpdated);
+            }
+        }
+        task.controller.cancel();
+    }
+
+    /**
+     * @return the number of queued and running downloads
+     */
+    public int getDownloadCount() {
+        synchronized (tasks) {
+            return tasks.size();
+        }
+    }
+
+    /**
+     * @return the average progress of the queued and running downloads, or -1 if none of
+     * them has made any progress yet
+     */
+    public int getAverageProgress() {
+        synchronized (tasks) {
+            int count = tasks.size();
+            long sum = 0;
+            for (int i = 0; i < count; i++) {
+                sum += tasks.valueAt(i).download.getProgress();
+            }
+            return sum == 0 ? -1 : (int) (sum / count);
+        }
+    }
+
+    /**
+     * @return the state of a queued or running download, or null if there is none
+     */
+    public Download getDownload(int contentId) {
+        synchronized (tasks) {
+            Task task = tasks.get(contentId);
+            return task == null ? null : task.download;
+        }
+    }
+
+    public void setMaxConcurrentDownloads(int maxConcurrentDownloads) {
+        if (maxConcurrentDownloads < 1) {
+            throw new IllegalArgumentException("At least one download has to be able to run");
+        }
+        synchronized (executor) {
+            if (maxConcurrentDownloads > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(maxConcurrentDownloads);
+                executor.setCorePoolSize(maxConcurrentDownloads);
+            } else {
+                executor.setCorePoolSize(maxConcurrentDownloads);
+                executor.setMaximumPoolSize(maxConcurrentDownloads);
+            }
+        }
+    }
+
+    @Override
+    public void didReceivedNotification(int id, Object... args) {
+        if (id == NotificationCenter.downloadCancelled) {
+            cancel((int) args[0]);
+        }
+    }
+
+    private class Task implements Runnable, Comparable<Task> {
+
+        private final DownloadController controller;
+        private final Download download = new Download();
+        private final int priority;
+        private final long sequence;
+
+        Task(DownloadController controller, int priority, long sequence) {
+            this.controller = controller;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            try {
+                controller.download(download);
+            } finally {
+                synchronized (tasks) {
+                    tasks.remove(controller.getContentId());
+                }
+                NotificationCenter.getInstance()
+                        .postNotificationName(NotificationCenter.downloadQueueUpdated);
+            }
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2019 Giovanni Terlingen
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ **/
+package com.giovanniterlingen.windesheim.controllers;
+
+import com.giovanniterlingen.windesheim.ApplicationLoader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A schedule app for students and teachers of Windesheim
+ * <p>
+ * Publishes the progress of all running downloads from one shared poller on the main
+ * thread, instead of every download posting from its own thread for each chunk it writes.
+ * The poller backs off while nothing moves and stops when no download is running.
+ *
+ * @author Giovanni Terlingen
+ */
+class DownloadTracker {
+
+    private static final long MIN_POLL_INTERVAL = 250;
+    private static final long MAX_POLL_INTERVAL = 2000;
+    private static volatile DownloadTracker Instance = null;
+    // Only touched on the main thread
+    private final List<Listener> listeners = new ArrayList<>();
+    private long pollInterval = MIN_POLL_INTERVAL;
+    private boolean pollScheduled;
+
+    private final Runnable pollRunnable = new Runnable() {
+        @Override
+        public void run() {
+            pollScheduled = false;
+            poll();
+        }
+    };
+
+    private DownloadTracker() {
+    }
+
+    static DownloadTracker getInstance() {
+        DownloadTracker localInstance = Instance;
+        if (localInstance == null) {
+            synchronized (DownloadTracker.class) {
+                localInstance = Instance;
+                if (localInstance == null) {
+                    Instance = localInstance = new DownloadTracker();
+                }
+            }
+        }
+        return localInstance;
+    }
+
+    /**
+     * Starts publishing the progress of a download, may be called from any thread
+     */
+    void track(final Listener listener) {
+        ApplicationLoader.runOnUIThread(new Runnable() {
+            @Override
+            public void run() {
+                if (!listeners.contains(listener)) {
+                    listeners.add(listener);
+                }
+                pollInterval = MIN_POLL_INTERVAL;
+                schedulePoll();
+            }
+        });
+    }
+
+    /**
+     * Publishes the progress a last time and stops tracking the download, may be called
+     * from any thread
+     */
+    void untrack(final Listener listener) {
+        ApplicationLoader.runOnUIThread(new Runnable() {
+            @Override
+            public void run() {
+                if (listeners.remove(listener)) {
+                    listener.publishProgress();
+                }
+                if (listeners.isEmpty()) {
+                    ApplicationLoader.applicationHandler.removeCallbacks(pollRunnable);
+                    pollScheduled = false;
+                }
+            }
+        });
+    }
+
+    private void schedulePoll() {
+        if (pollScheduled) {
+            return;
+        }
+        pollScheduled = true;
+        ApplicationLoader.applicationHandler.postDelayed(pollRunnable, pollInterval);
+    }
+
+    private void poll() {
+        boolean changed = false;
+        for (int i = 0; i < listeners.size(); i++) {
+            changed |= listeners.get(i).publishProgress();
+        }
+        if (listeners.isEmpty()) {
+            return;
+        }
+        // Stalled downloads, e.g. waiting for the network, are checked less often
+        pollInterval = changed ? MIN_POLL_INTERVAL
+                : Math.min(pollInterval * 2, MAX_POLL_INTERVAL);
+        schedulePoll();
+    }
+
+    interface Listener {
+
+        /**
+         * Called on the main thread
+         *
+         * @return whether the progress changed since it was published last
+         */
+        boolean publishProgress();
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2019 Giovanni Terlingen
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ **/
+package com.giovanniterlingen.windesheim.controllers;
+
+import android.util.SparseBooleanArray;
+
+import com.giovanniterlingen.windesheim.ApplicationLoader;
+import com.giovanniterlingen.windesheim.NotificationCenter;
+import com.giovanniterlingen.windesheim.models.NatschoolContent;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A schedule app for students and teachers of Windesheim
+ * <p>
+ * Downloads all files in a folder of a study route and its sub folders. Files which are
+ * in the downloads directory already are skipped, as are files with the same name as one found
+ * earlier since they would be saved to the same place. The rest is queued with a low priority
+ * so files the user opens go first.
+ *
+ * @author Giovanni Terlingen
+ */
+public class FolderDownloadController implements Runnable,
+        NotificationCenter.NotificationCenterDelegate {
+
+    // Guards against folders that contain themselves
+    private static final int MAX_DEPTH = 10;
+    // Walking a folder tree takes many requests, keep them off the shared AsyncTask threads
+    private static final ThreadPoolExecutor walkExecutor;
+    private final int studyRouteId;
+    private final int parentId;
+    private final SparseBooleanArray pendingIds = new SparseBooleanArray();
+    private int total;
+    private int succeeded;
+    private int failed;
+
+    static {
+        walkExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        walkExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param parentId the folder to download, -1 downloads the whole study route
+     */
+    public FolderDownloadController(int studyRouteId, int parentId) {
+        this.studyRouteId = studyRouteId;
+        this.parentId = parentId;
+    }
+
+    public void start() {
+        walkExecutor.execute(this);
+    }
+
+    @Override
+    public void run() {
+        final List<NatschoolContent> files = new ArrayList<>();
+        try {
+            collectFiles(parentId, 0, new SparseBooleanArray(), new HashSet<String>(), files);
+        } catch (Exception e) {
+            NotificationCenter.getInstance().postNotificationName(
+                    NotificationCenter.folderDownloadFailed, studyRouteId, parentId);
+            return;
+        }
+        ApplicationLoader.runOnUIThread(new Runnable() {
+            @Override
+            public void run() {
+                enqueue(files);
+            }
+        });
+    }
+
+    private void collectFiles(int folderId, int depth, SparseBooleanArray visited,
+                              Set<String> destinations, List<NatschoolContent> files)
+            throws Exception {
+        if (depth > MAX_DEPTH || visited.get(folderId)) {
+            return;
+        }
+        visited.put(folderId, true);
+        for (NatschoolContent content :
+                NatschoolController.getFreshStudyRouteContent(studyRouteId, folderId)) {
+            if (content.url == null || content.url.length() == 0) {
+                collectFiles(content.id, depth + 1, visited, destinations, files);
+            } else if (content.type == 10) {
+                File destination = DownloadController.getDestination(content.url);
+                if (!destination.exists() && destinations.add(destination.getPath())) {
+                    files.add(content);
+                }
+            }
+        }
+    }
+
+    private void enqueue(List<NatschoolContent> files) {
+        NotificationCenter.getInstance().addObserver(this, NotificationCenter.downloadFinished);
+        for (NatschoolContent content : files) {
+            DownloadController controller = new DownloadController(null, content.url,
+                    studyRouteId, content.id, -1);
+            // Files which are queued already count as well, they finish like the others
+            if (DownloadQueue.getInstance().enqueue(controller, DownloadQueue.PRIORITY_LOW) ||
+                    DownloadQueue.getInstance().getDownload(content.id) != null) {
+                pendingIds.put(content.id, true);
+            }
+        }
+        total = pendingIds.size();
+        postProgress();
+    }
+
+    private void postProgress() {
+        NotificationCenter.getInstance().postNotificationName(
+                NotificationCenter.folderDownloadUpdated, studyRouteId, parentId,
+                succeeded, failed, total);
+        if (pendingIds.size() == 0) {
+            NotificationCenter.getInstance().removeObserver(this,
+                    NotificationCenter.downloadFinished);
+        }
+    }
+
+    @Override
+    public void didReceivedNotification(int id, Object... args) {
+        if (id == NotificationCenter.downloadFinished && (int) args[0] == studyRouteId) {
+            int contentId = (int) args[2];
+            if (pendingIds.get(contentId)) {
+                pendingIds.delete(contentId);
+                if ((boolean) args[3]) {
+                    succeeded++;
+                } else {
+                    failed++;
+                }
+                postProgress();
+            }
+        }
+    }
+}
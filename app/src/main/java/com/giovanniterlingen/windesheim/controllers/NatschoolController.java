@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) 2019 Giovanni Terlingen
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ **/
+package com.giovanniterlingen.windesheim.controllers;
+
+import com.giovanniterlingen.windesheim.models.NatschoolContent;
+import com.giovanniterlingen.windesheim.models.NatschoolFolder;
+import com.giovanniterlingen.windesheim.utils.CookieUtils;
+import com.giovanniterlingen.windesheim.utils.HttpUtils;
+import com.giovanniterlingen.windesheim.utils.TimeUtils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A schedule app for students and teachers of Windesheim
+ *
+ * @author Giovanni Terlingen
+ */
+public class NatschoolController {
+
+    private static final String BASE_URL = "https://elo.windesheim.nl/services/Studyroutemobile.asmx/";
+    // The server does not return more than this many items per request
+    private static final int CONTENT_PAGE_SIZE = 100;
+    // Cached folders younger than this are shown without asking the server again
+    private static final long CACHE_TTL = TimeUnit.MINUTES.toMillis(15);
+    private static final int STUDY_ROUTES_ID = -1;
+
+    /**
+     * @return the study routes as they were fetched last time, or null
+     */
+    public static NatschoolFolder getCachedStudyRoutes() {
+        return DatabaseController.getInstance().getNatschoolFolder(STUDY_ROUTES_ID, -1);
+    }
+
+    /**
+     * @return the contents of a folder as they were fetched last time, or null
+     */
+    public static NatschoolFolder getCachedStudyRouteContent(int studyRouteId, int parentId) {
+        return DatabaseController.getInstance().getNatschoolFolder(studyRouteId, parentId);
+    }
+
+    public static boolean isFresh(NatschoolFolder folder) {
+        return folder != null && Math.abs(TimeUtils.currentTimeMillis() - folder.getFetchTime())
+                < CACHE_TTL;
+    }
+
+    /**
+     * Same as {@link #getStudyRouteContent(int, int)}, but uses the cache when it is fresh
+     */
+    public static List<NatschoolContent> getFreshStudyRouteContent(int studyRouteId,
+                                                                   int parentId)
+            throws IOException, JSONException {
+        NatschoolFolder folder = getCachedStudyRouteContent(studyRouteId, parentId);
+        if (isFresh(folder)) {
+            return folder.getContents();
+        }
+        return getStudyRouteContent(studyRouteId, parentId);
+    }
+
+    /**
+     * Removes all cached study routes and folders, e.g. when the user logs out
+     */
+    public static void clearCache() {
+        DatabaseController.executeInBackground(new Runnable() {
+            @Override
+            public void run() {
+                DatabaseController.getInstance().deleteNatschoolFolders();
+            }
+        });
+    }
+
+    /**
+     * @throws JSONException when the session expired, the server answers with a login page
+     */
+    public static List<NatschoolContent> getStudyRoutes() throws IOException, JSONException {
+        List<NatschoolContent> content = new ArrayList<>();
+        JSONObject jsonObject = makeRequest("LoadStudyroutes",
+                "start=0&length=1000&filter=0&search=");
+        JSONArray jsonArray = jsonObject.getJSONArray("STUDYROUTES");
+        for (int i = 0; i < jsonArray.length(); i++) {
+            JSONObject jsonobj = jsonArray.getJSONObject(i);
+            content.add(new NatschoolContent(jsonobj.getInt("ID"),
+                    jsonobj.getString("NAME"),
+                    (jsonobj.has("IMAGEURL_24") ?
+                            jsonobj.getString("IMAGEURL_24") : null)));
+        }
+        DatabaseController.getInstance().saveNatschoolFolder(STUDY_ROUTES_ID, -1, content);
+        return content;
+    }
+
+    /**
+     * Gets all supported items of a folder, -1 as parent id is the root of a study route
+     *
+     * @throws JSONException when the session expired, the server answers with a login page
+     */
+    public static List<NatschoolContent> getStudyRouteContent(int studyRouteId, int parentId)
+            throws IOException, JSONException {
+        List<NatschoolContent> content = new ArrayList<>();
+        int start = 0;
+        int count;
+        do {
+            JSONObject jsonObject = makeRequest("LoadStudyrouteContent", "studyrouteid=" +
+                    studyRouteId + "&parentid=" + parentId + "&start=" + start + "&length=" +
+                    CONTENT_PAGE_SIZE);
+            JSONArray jsonArray = jsonObject.getJSONArray("STUDYROUTE_CONTENT");
+            count = jsonArray.length();
+            for (int i = 0; i < count; i++) {
+                JSONObject jsonobj = jsonArray.getJSONObject(i);
+                int type = jsonobj.getInt("ITEMTYPE");
+                if (type == 0 || type == 1 || type == 3 || type == 10 || type == 11) {
+                    content.add(new NatschoolContent(jsonobj.getInt("ID"),
+                            jsonobj.getString("NAME"),
+                            jsonobj.getInt("STUDYROUTE_ITEM_ID"), type,
+                            (jsonobj.has("URL") ? jsonobj.getString("URL") : null)));
+                }
+            }
+            start += count;
+        } while (count == CONTENT_PAGE_SIZE);
+        DatabaseController.getInstance().saveNatschoolFolder(studyRouteId, parentId, content);
+        return content;
+    }
+
+    private static JSONObject makeRequest(String path, String urlParameters)
+            throws IOException, JSONException {
+        InputStream is = null;
+        try {
+            URL url = new URL(BASE_URL + path + "?" + urlParameters);
+            HttpURLConnection connection = HttpUtils.openConnection(url, "POST");
+            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            connection.setRequestProperty("Content-Length", Integer
+                    .toString(urlParameters.getBytes().length));
+            connection.setRequestProperty("Content-Language", "en-US");
+            connection.setRequestProperty("Cookie", CookieUtils.getNatSchoolCookie());
+
+            connection.setUseCaches(false);
+            connection.setDoOutput(true);
+
+            DataOutputStream wr = new DataOutputStream(connection.getOutputStream());
+            wr.writeBytes(urlParameters);
+            wr.flush();
+            wr.close();
+
+            int status = connection.getResponseCode();
+
+            is = status >= 400 ? HttpUtils.getErrorStream(connection) :
+                    HttpUtils.getInputStream(connection);
+            if (is == null) {
+                throw new IOException("Empty response, status " + status);
+            }
+            BufferedReader rd = new BufferedReader(new InputStreamReader(is));
+            String line;
+            StringBuilder response = new StringBuilder();
+            while ((line = rd.readLine()) != null) {
+                response.append(line);
+                response.append('\r');
+            }
+            return new JSONObject(response.toString());
+        } finally {
+            HttpUtils.close(is);
+        }
+    }
+}
@@ -25,18 +25,27 @@
 package com.giovanniterlingen.windesheim.controllers;
 
 import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.text.TextUtils;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
 import androidx.preference.PreferenceManager;
 
 import com.giovanniterlingen.windesheim.ApplicationLoader;
 import com.giovanniterlingen.windesheim.Constants;
+import com.giovanniterlingen.windesheim.NotificationCenter;
 import com.giovanniterlingen.windesheim.models.Lesson;
 import com.giovanniterlingen.windesheim.models.Result;
 import com.giovanniterlingen.windesheim.models.Schedule;
+import com.giovanniterlingen.windesheim.models.ScheduleChanges;
 import com.giovanniterlingen.windesheim.models.ScheduleItem;
 import com.giovanniterlingen.windesheim.utils.CalendarUtils;
 import com.giovanniterlingen.windesheim.utils.CookieUtils;
+import com.giovanniterlingen.windesheim.utils.HttpCacheUtils;
+import com.giovanniterlingen.windesheim.utils.HttpUtils;
 import com.giovanniterlingen.windesheim.utils.NotificationUtils;
+import com.giovanniterlingen.windesheim.utils.TelemetryUtils;
 import com.giovanniterlingen.windesheim.utils.TimeUtils;
 
 import org.json.JSONArray;
@@ -50,6 +59,15 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A schedule app for students and teachers of Windesheim
@@ -60,19 +78,62 @@ public class WindesheimAPIController {
 
     private static final String WINDESHEIM_API_URL = "http://api.windesheim.nl/api";
     private static final String WINDESHEIM_AZURE_API_URL = "https://windesheimapi.azurewebsites.net/api/v1";
+    private static final int FETCH_THREAD_COUNT = 3;
+    private static final long FETCH_INTERVAL = TimeUnit.DAYS.toMillis(1);
+    private static final ThreadPoolExecutor fetchExecutor;
+
+    static {
+        fetchExecutor = new ThreadPoolExecutor(FETCH_THREAD_COUNT, FETCH_THREAD_COUNT,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        fetchExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param lastFetchTime the time the lessons were fetched last, or 0 if never
+     * @return whether the stored lessons are too old to be shown without fetching them first
+     */
+    public static boolean isFetchDue(long lastFetchTime) {
+        return lastFetchTime == 0 ||
+                TimeUtils.currentTimeMillis() - lastFetchTime > FETCH_INTERVAL;
+    }
 
     public static synchronized void getAndSaveLessons(boolean notify) throws Exception {
         SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(ApplicationLoader.applicationContext);
-        if (preferences.getBoolean(Constants.PREFS_SYNC_CALENDAR, false)) {
-            CalendarUtils.deleteAllLessonsFromCalendar();
-        }
 
         Schedule[] schedules = DatabaseController.getInstance().getSchedules();
-        for (Schedule schedule : schedules) {
-            Lesson[] hiddenLessons = DatabaseController.getInstance().getHiddenLessons();
+        LessonFeed[] feeds = fetchLessons(schedules);
+
+        // Tells us how much compressing the schedule feeds saves in practice
+        long bytesOnWire = 0;
+        long bytesDecoded = 0;
+        for (LessonFeed feed : feeds) {
+            bytesOnWire += feed.byteCounter.getBytesOnWire();
+            bytesDecoded += feed.byteCounter.getBytesDecoded();
+        }
+        Bundle bundle = new Bundle();
+        bundle.putLong(Constants.TELEMETRY_PROPERTY_BYTES_ON_WIRE, bytesOnWire);
+        bundle.putLong(Constants.TELEMETRY_PROPERTY_BYTES_DECODED, bytesDecoded);
+        TelemetryUtils.getInstance().logEvent(Constants.TELEMETRY_KEY_LESSONS_FETCHED, bundle);
+
+        boolean modified = false;
+        for (LessonFeed feed : feeds) {
+            if (feed.lessons != null) {
+                modified = true;
+                break;
+            }
+        }
+        int today = TimeUtils.getDayNumber(TimeUtils.now());
+        ScheduleChanges scheduleChanges = new ScheduleChanges();
+        for (int s = 0; modified && s < schedules.length; s++) {
+            Schedule schedule = schedules[s];
+            Lesson[] lessons = feeds[s].lessons;
+            if (lessons == null) {
+                // Server answered 304, what we have stored is still up to date
+                continue;
+            }
             Lesson[] oldLessons = DatabaseController.getInstance().getLessonsForCompare(schedule.getId());
 
-            Lesson[] lessons = getLessons(schedule.getId(), schedule.getType());
+            Lesson[] hiddenLessons = DatabaseController.getInstance().getHiddenLessons();
             for (Lesson hiddenLesson : hiddenLessons) {
                 for (Lesson lesson : lessons) {
                     if (hiddenLesson.getSubject().equals(lesson.getSubject()) &&
@@ -81,40 +142,112 @@ public class WindesheimAPIController {
                     }
                 }
             }
-            DatabaseController.getInstance().clearScheduleData(schedule.getId());
-            DatabaseController.getInstance().saveLessons(lessons);
 
-            if (preferences.getBoolean(Constants.PREFS_SYNC_CALENDAR, false)) {
-                CalendarUtils.syncLessonsWithCalendar(lessons);
+            ScheduleChanges changes = compareLessons(oldLessons, lessons, today);
+            if (changes == null) {
+                DatabaseController.getInstance().saveLessons(schedule.getId(), lessons);
+            } else {
+                DatabaseController.getInstance().saveLessonChanges(schedule.getId(), changes);
+                scheduleChanges.addAll(changes);
             }
+            feeds[s].saveValidators();
+        }
+        // Also when nothing changed, a calendar might have been picked since the last sync
+        if (preferences.getBoolean(Constants.PREFS_SYNC_CALENDAR, false)) {
+            CalendarUtils.syncLessonsWithCalendar(
+                    DatabaseController.getInstance().getLessonsForCalendar());
+        }
+        if (modified) {
+            NotificationCenter.getInstance().postNotificationName(NotificationCenter.scheduleChanged);
+            ApplicationLoader.rescheduleNotifications();
+        }
+        if (notify && !scheduleChanges.isEmpty()) {
+            NotificationUtils.getInstance().createScheduleChangedNotification(scheduleChanges);
+        }
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.putLong(Constants.PREFS_LAST_FETCH_TIME, TimeUtils.currentTimeMillis());
+        editor.apply();
+    }
 
-            Lesson[] newLessons = DatabaseController.getInstance().getLessonsForCompare(schedule.getId());
-            if (!notify) {
-                continue;
+    /**
+     * Compares the stored lessons of a schedule with the fetched ones by lesson id. Only lessons
+     * from today on are compared, earlier ones are not in the feed anymore.
+     *
+     * @return the changes, or null if lesson ids are not unique and we can't tell them apart
+     */
+    private static ScheduleChanges compareLessons(Lesson[] oldLessons, Lesson[] newLessons,
+                                                  int today) {
+        HashMap<String, Lesson> oldLessonsById = new HashMap<>(oldLessons.length * 2);
+        for (Lesson lesson : oldLessons) {
+            if (oldLessonsById.put(lesson.getId(), lesson) != null) {
+                return null;
             }
-            if (oldLessons.length != newLessons.length) {
-                NotificationUtils.getInstance().createScheduleChangedNotification();
+        }
+        ScheduleChanges changes = new ScheduleChanges();
+        HashSet<String> newIds = new HashSet<>(newLessons.length * 2);
+        for (Lesson lesson : newLessons) {
+            if (TimeUtils.getDayNumber(lesson.getStartTime()) < today) {
                 continue;
             }
-            for (int i = 0; i < oldLessons.length; i++) {
-                Lesson oldLesson = oldLessons[i];
-                Lesson newLesson = newLessons[i];
-                if (!oldLesson.getId().equals(newLesson.getId()) ||
-                        !oldLesson.getStartTime().equals(newLesson.getStartTime()) ||
-                        !oldLesson.getEndTime().equals(newLesson.getEndTime()) ||
-                        !oldLesson.getRoom().equals(newLesson.getRoom()) ||
-                        !oldLesson.getTeacher().equals(newLesson.getTeacher()) ||
-                        !oldLesson.getClassName().equals(newLesson.getClassName())) {
-                    NotificationUtils.getInstance().createScheduleChangedNotification();
+            if (!newIds.add(lesson.getId())) {
+                return null;
+            }
+            Lesson oldLesson = oldLessonsById.remove(lesson.getId());
+            if (oldLesson == null) {
+                changes.getAdded().add(lesson);
+            } else if (!oldLesson.getStartTime().equals(lesson.getStartTime()) ||
+                    !oldLesson.getEndTime().equals(lesson.getEndTime())) {
+                changes.getMoved().add(lesson);
+            } else if (!TextUtils.equals(oldLesson.getSubject(), lesson.getSubject()) ||
+                    !TextUtils.equals(oldLesson.getRoom(), lesson.getRoom()) ||
+                    !TextUtils.equals(oldLesson.getTeacher(), lesson.getTeacher()) ||
+                    !TextUtils.equals(oldLesson.getClassName(), lesson.getClassName())) {
+                changes.getChanged().add(lesson);
+            }
+        }
+        changes.getRemoved().addAll(oldLessonsById.values());
+        return changes;
+    }
+
+    /**
+     * Fetches the lessons of all schedules concurrently. The result is ordered like the given
+     * schedules, so they can be persisted one after another. Nothing is returned unless every
+     * request succeeded.
+     */
+    private static LessonFeed[] fetchLessons(Schedule[] schedules) throws Exception {
+        List<Future<LessonFeed>> futures = new ArrayList<>(schedules.length);
+        for (final Schedule schedule : schedules) {
+            futures.add(fetchExecutor.submit(new Callable<LessonFeed>() {
+                @Override
+                public LessonFeed call() throws Exception {
+                    return getLessons(schedule.getId(), schedule.getType());
                 }
+            }));
+        }
+        LessonFeed[] feeds = new LessonFeed[schedules.length];
+        try {
+            for (int i = 0; i < feeds.length; i++) {
+                feeds[i] = futures.get(i).get();
             }
+        } catch (ExecutionException e) {
+            for (Future<LessonFeed> future : futures) {
+                future.cancel(true);
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        } catch (InterruptedException e) {
+            for (Future<LessonFeed> future : futures) {
+                future.cancel(true);
+            }
+            throw e;
         }
-        SharedPreferences.Editor editor = preferences.edit();
-        editor.putLong(Constants.PREFS_LAST_FETCH_TIME, System.currentTimeMillis());
-        editor.apply();
+        return feeds;
     }
 
-    private static Lesson[] getLessons(String id, Constants.SCHEDULE_TYPE type) throws Exception {
+    private static LessonFeed getLessons(String id, Constants.SCHEDULE_TYPE type) throws Exception {
         String typeString;
         if (type == Constants.SCHEDULE_TYPE.CLASS) {
             typeString = "Klas";
@@ -124,53 +257,119 @@ public class WindesheimAPIController {
             typeString = "Vak";
         }
         URL url = new URL(WINDESHEIM_API_URL + "/" + typeString + "/" + id + "/Les");
-        String response = makeRequest(url, false);
 
-        JSONArray jsonArray = new JSONArray(response);
-        Lesson[] lessons = new Lesson[jsonArray.length()];
+        // Only revalidate when we still have the lessons the validators belong to
+        boolean conditional = DatabaseController.getInstance().hasLessons(id);
+        HttpURLConnection connection = openConnection(url, false, conditional);
 
-        for (int i = 0; i < jsonArray.length(); i++) {
-            JSONObject object = jsonArray.getJSONObject(i);
+        LessonFeed feed = new LessonFeed(connection);
+        if (conditional && HttpCacheUtils.isNotModified(connection)) {
+            HttpUtils.close(connection.getInputStream());
+            return feed;
+        }
 
-            Lesson lesson = new Lesson();
-            lesson.setId(object.getString("id"));
-            lesson.setRoom(object.getString("lokaal").replace(";", ", "));
-            lesson.setSubject(object.getString("commentaar"));
-
-            if (type != Constants.SCHEDULE_TYPE.SUBJECT && lesson.getRoom().length() > 0) {
-                if (object.getString("vakcode").length() > 0) {
-                    lesson.setSubject(lesson.getSubject() + " (" +
-                            object.getString("vakcode")
-                            + ")");
-                } else if (object.getString("vaknaam").length() > 0) {
-                    lesson.setSubject(lesson.getSubject() + " (" +
-                            object.getString("vaknaam")
-                            + ")");
-                }
+        InputStream inputStream = HttpUtils.getInputStream(connection, feed.byteCounter);
+        try {
+            JsonReader reader = new JsonReader(new InputStreamReader(inputStream, "UTF-8"));
+            ArrayList<Lesson> lessons = new ArrayList<>();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                lessons.add(readLesson(reader, id, type));
             }
+            reader.endArray();
+            feed.lessons = lessons.toArray(new Lesson[0]);
+            return feed;
+        } finally {
+            HttpUtils.close(inputStream);
+        }
+    }
 
-            lesson.setStartTime(new Date(TimeUtils.removeTimeOffset(object
-                    .getLong("starttijd"))));
-            lesson.setEndTime(new Date(TimeUtils.removeTimeOffset(object
-                    .getLong("eindtijd"))));
-
-            lesson.setClassName(object.getString("groepcode"));
-            lesson.setScheduleType(type);
-            lesson.setVisible(true);
-            lesson.setScheduleId(id);
-
-            StringBuilder stringBuilder = new StringBuilder();
-            JSONArray jsonArray1 = object.getJSONArray("docentnamen");
-            for (int j = 0; j < jsonArray1.length(); j++) {
-                stringBuilder.append(jsonArray1.getString(j));
-                if (j < jsonArray1.length() - 1) {
-                    stringBuilder.append(", ");
-                }
+    /**
+     * Reads a single lesson object from the feed, without building a JSON tree first
+     */
+    private static Lesson readLesson(JsonReader reader, String id, Constants.SCHEDULE_TYPE type)
+            throws IOException {
+        String lessonId = null;
+        String room = "";
+        String comment = "";
+        String subjectCode = "";
+        String subjectName = "";
+        String className = "";
+        long startTime = 0;
+        long endTime = 0;
+        StringBuilder teachers = new StringBuilder();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "id":
+                    lessonId = reader.nextString();
+                    break;
+                case "lokaal":
+                    room = reader.nextString().replace(";", ", ");
+                    break;
+                case "commentaar":
+                    comment = reader.nextString();
+                    break;
+                case "vakcode":
+                    subjectCode = reader.nextString();
+                    break;
+                case "vaknaam":
+                    subjectName = reader.nextString();
+                    break;
+                case "groepcode":
+                    className = reader.nextString();
+                    break;
+                case "starttijd":
+                    startTime = reader.nextLong();
+                    break;
+                case "eindtijd":
+                    endTime = reader.nextLong();
+                    break;
+                case "docentnamen":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        if (teachers.length() > 0) {
+                            teachers.append(", ");
+                        }
+                        teachers.append(reader.nextString());
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
             }
-            lesson.setTeacher(stringBuilder.toString());
-            lessons[i] = lesson;
         }
-        return lessons;
+        reader.endObject();
+
+        Lesson lesson = new Lesson();
+        lesson.setId(lessonId);
+        lesson.setRoom(room);
+        lesson.setSubject(comment);
+
+        if (type != Constants.SCHEDULE_TYPE.SUBJECT && room.length() > 0) {
+            if (subjectCode.length() > 0) {
+                lesson.setSubject(comment + " (" + subjectCode + ")");
+            } else if (subjectName.length() > 0) {
+                lesson.setSubject(comment + " (" + subjectName + ")");
+            }
+        }
+
+        lesson.setStartTime(new Date(TimeUtils.removeTimeOffset(startTime)));
+        lesson.setEndTime(new Date(TimeUtils.removeTimeOffset(endTime)));
+
+        lesson.setClassName(className);
+        lesson.setScheduleType(type);
+        lesson.setVisible(true);
+        lesson.setScheduleId(id);
+        lesson.setTeacher(teachers.toString());
+        return lesson;
     }
 
     public static ScheduleItem[] getClasses() throws Exception {
@@ -241,24 +440,81 @@ public class WindesheimAPIController {
         return results.toArray(new Result[0]);
     }
 
-    private static String makeRequest(URL url, boolean authenticate) throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setConnectTimeout(10000);
-        connection.setRequestMethod("GET");
+    private static HttpURLConnection openConnection(URL url, boolean authenticate,
+                                                    boolean conditional) throws IOException {
+        HttpURLConnection connection = HttpUtils.openConnection(url, "GET");
         if (authenticate) {
             connection.setRequestProperty("Cookie", CookieUtils.getEducatorCookie());
         }
-        connection.setDoInput(true);
+        if (conditional) {
+            HttpCacheUtils.addConditionalHeaders(connection);
+        }
         connection.connect();
+        return connection;
+    }
+
+    /**
+     * Responses of authenticated requests contain personal data, so only public data is
+     * cached on disk.
+     */
+    private static String makeRequest(URL url, boolean authenticate) throws IOException {
+        boolean cache = !authenticate;
+        HttpURLConnection connection = openConnection(url, authenticate, cache);
+        if (cache && HttpCacheUtils.isNotModified(connection)) {
+            HttpUtils.close(connection.getInputStream());
+            String body = HttpCacheUtils.getBody(url);
+            if (body != null) {
+                return body;
+            }
+            HttpCacheUtils.remove(url);
+            connection = openConnection(url, false, false);
+        }
 
         StringBuilder stringBuffer = new StringBuilder();
 
-        InputStream inputStream = connection.getInputStream();
-        BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
-        String line;
-        while ((line = bufferedReader.readLine()) != null) {
-            stringBuffer.append(line);
+        InputStream inputStream = HttpUtils.getInputStream(connection);
+        try {
+            BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
+            String line;
+            while ((line = bufferedReader.readLine()) != null) {
+                stringBuffer.append(line);
+            }
+        } finally {
+            HttpUtils.close(inputStream);
+        }
+        String body = stringBuffer.toString();
+        if (cache) {
+            HttpCacheUtils.put(connection, body);
+        }
+        return body;
+    }
+
+    /**
+     * Lessons of a single schedule, null when the server told us nothing has changed
+     */
+    private static class LessonFeed {
+
+        private final URL url;
+        private final String eTag;
+        private final String lastModified;
+        private final HttpUtils.ByteCounter byteCounter = new HttpUtils.ByteCounter();
+        private Lesson[] lessons;
+
+        LessonFeed(HttpURLConnection connection) {
+            this.url = connection.getURL();
+            this.eTag = connection.getHeaderField("ETag");
+            this.lastModified = connection.getHeaderField("Last-Modified");
+        }
+
+        /**
+         * Only called once the lessons are stored, so a failed save is fetched again
+         */
+        void saveValidators() {
+            if (eTag == null && lastModified == null) {
+                HttpCacheUtils.remove(url);
+                return;
+            }
+            HttpCacheUtils.put(url, eTag, lastModified, null);
         }
-        return stringBuffer.toString();
     }
 }
@@ -31,8 +31,9 @@ package com.giovanniterlingen.windesheim.models;
  */
 public class Download {
 
-    private int progress;
-    private String progressString;
+    // Written by the download thread, read when the list of contents is shown
+    private volatile int progress;
+    private volatile String progressString;
 
     public int getProgress() {
         return progress;
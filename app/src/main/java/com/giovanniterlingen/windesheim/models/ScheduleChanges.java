@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2019 Giovanni Terlingen
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ **/
+package com.giovanniterlingen.windesheim.models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A schedule app for students and teachers of Windesheim
+ *
+ * @author Giovanni Terlingen
+ */
+public class ScheduleChanges {
+
+    private final List<Lesson> added = new ArrayList<>();
+    private final List<Lesson> removed = new ArrayList<>();
+    private final List<Lesson> moved = new ArrayList<>();
+    private final List<Lesson> changed = new ArrayList<>();
+
+    public List<Lesson> getAdded() {
+        return added;
+    }
+
+    public List<Lesson> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Lessons of which the start or end time has changed
+     */
+    public List<Lesson> getMoved() {
+        return moved;
+    }
+
+    /**
+     * Lessons of which the subject, room, teacher or class has changed
+     */
+    public List<Lesson> getChanged() {
+        return changed;
+    }
+
+    public void addAll(ScheduleChanges changes) {
+        added.addAll(changes.added);
+        removed.addAll(changes.removed);
+        moved.addAll(changes.moved);
+        changed.addAll(changes.changed);
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && moved.isEmpty() && changed.isEmpty();
+    }
+}
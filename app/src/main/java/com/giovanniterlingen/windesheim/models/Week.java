@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2019 Giovanni Terlingen
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ **/
+package com.giovanniterlingen.windesheim.models;
+
+import android.util.SparseArray;
+
+import com.giovanniterlingen.windesheim.utils.TimeUtils;
+
+import java.util.Date;
+
+/**
+ * A schedule app for students and teachers of Windesheim
+ *
+ * @author Giovanni Terlingen
+ */
+public class Week {
+
+    private static final Lesson[] NO_LESSONS = new Lesson[0];
+
+    private final int firstDayNumber;
+    private final SparseArray<Lesson[]> lessons;
+
+    /**
+     * @param lessons visible lessons of this week keyed by day number
+     */
+    public Week(int firstDayNumber, SparseArray<Lesson[]> lessons) {
+        this.firstDayNumber = firstDayNumber;
+        this.lessons = lessons;
+    }
+
+    public int getFirstDayNumber() {
+        return firstDayNumber;
+    }
+
+    public Lesson[] getLessons(Date date) {
+        Lesson[] dayLessons = lessons.get(TimeUtils.getDayNumber(date));
+        return dayLessons == null ? NO_LESSONS : dayLessons;
+    }
+}
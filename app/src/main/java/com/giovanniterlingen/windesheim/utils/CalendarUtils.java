@@ -25,15 +25,21 @@
 package com.giovanniterlingen.windesheim.utils;
 
 import android.Manifest;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
+import android.os.RemoteException;
 import android.provider.CalendarContract;
+import android.util.LongSparseArray;
 
 import androidx.preference.PreferenceManager;
 
@@ -41,8 +47,13 @@ import com.giovanniterlingen.windesheim.ApplicationLoader;
 import com.giovanniterlingen.windesheim.Constants;
 import com.giovanniterlingen.windesheim.controllers.DatabaseController;
 import com.giovanniterlingen.windesheim.models.Calendar;
+import com.giovanniterlingen.windesheim.models.CalendarRow;
 import com.giovanniterlingen.windesheim.models.Lesson;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
 
 /**
@@ -52,6 +63,10 @@ import java.util.TimeZone;
  */
 public class CalendarUtils {
 
+    private static final int CALENDAR_BATCH_SIZE = 100;
+    private static final LongSparseArray<Calendar> cachedCalendars = new LongSparseArray<>();
+    private static ContentObserver calendarObserver;
+
     public static Calendar[] getCalendars() {
         if (Build.VERSION.SDK_INT >= 23 && ApplicationLoader.applicationContext.checkSelfPermission(Manifest.permission.READ_CALENDAR) != PackageManager.PERMISSION_GRANTED) {
             return null;
@@ -70,53 +85,85 @@ public class CalendarUtils {
             calendars[cursor.getPosition()] = calendar;
         }
         cursor.close();
+
+        synchronized (cachedCalendars) {
+            registerCalendarObserver();
+            for (Calendar calendar : calendars) {
+                cachedCalendars.put(calendar.getId(), calendar);
+            }
+        }
         return calendars;
     }
 
     public static boolean calendarExists(long id) {
-        if (Build.VERSION.SDK_INT >= 23 && ApplicationLoader.applicationContext.checkSelfPermission(Manifest.permission.READ_CALENDAR) != PackageManager.PERMISSION_GRANTED) {
-            return false;
-        }
-
-        String[] projection = {CalendarContract.Calendars._ID, CalendarContract.Calendars.CALENDAR_DISPLAY_NAME};
-        Uri contentUri = CalendarContract.Calendars.CONTENT_URI;
-
-        ContentResolver contentResolver = ApplicationLoader.applicationContext.getContentResolver();
-        Cursor cursor = contentResolver.query(contentUri, projection, null, null, null);
-
-        boolean exists = false;
-        while (cursor.moveToNext()) {
-            if (id == cursor.getLong(cursor.getColumnIndexOrThrow(CalendarContract.Calendars._ID))) {
-                exists = true;
-            }
-        }
-        cursor.close();
-        return exists;
+        return getCalendarById(id) != null;
     }
 
     public static String getCalendarNameById(long id) {
+        Calendar calendar = getCalendarById(id);
+        return calendar == null ? null : calendar.getName();
+    }
+
+    /**
+     * Looks up a single calendar, answered from the cache until the calendars change
+     *
+     * @return the calendar or null if it does not exist or cannot be read
+     */
+    private static Calendar getCalendarById(long id) {
         if (Build.VERSION.SDK_INT >= 23 && ApplicationLoader.applicationContext.checkSelfPermission(Manifest.permission.READ_CALENDAR) != PackageManager.PERMISSION_GRANTED) {
             return null;
         }
+        synchronized (cachedCalendars) {
+            // Calendars that do not exist are cached as null
+            if (cachedCalendars.indexOfKey(id) >= 0) {
+                return cachedCalendars.get(id);
+            }
+        }
 
-        String[] projection = {CalendarContract.Calendars._ID, CalendarContract.Calendars.CALENDAR_DISPLAY_NAME};
-        Uri contentUri = CalendarContract.Calendars.CONTENT_URI;
+        String[] projection = {CalendarContract.Calendars.CALENDAR_DISPLAY_NAME};
+        Uri contentUri = ContentUris.withAppendedId(CalendarContract.Calendars.CONTENT_URI, id);
 
         ContentResolver contentResolver = ApplicationLoader.applicationContext.getContentResolver();
         Cursor cursor = contentResolver.query(contentUri, projection, null, null, null);
 
-        String name = null;
-        while (cursor.moveToNext()) {
-            if (id == cursor.getLong(cursor.getColumnIndexOrThrow(CalendarContract.Calendars._ID))) {
-                name = cursor.getString(cursor
-                        .getColumnIndexOrThrow(CalendarContract.Calendars.CALENDAR_DISPLAY_NAME));
-                break;
+        Calendar calendar = null;
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                calendar = new Calendar();
+                calendar.setId(id);
+                calendar.setName(cursor.getString(cursor
+                        .getColumnIndexOrThrow(CalendarContract.Calendars.CALENDAR_DISPLAY_NAME)));
             }
+            cursor.close();
         }
-        cursor.close();
-        return name;
+
+        synchronized (cachedCalendars) {
+            registerCalendarObserver();
+            cachedCalendars.put(id, calendar);
+        }
+        return calendar;
+    }
+
+    private static void registerCalendarObserver() {
+        if (calendarObserver != null) {
+            return;
+        }
+        calendarObserver = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                synchronized (cachedCalendars) {
+                    cachedCalendars.clear();
+                }
+            }
+        };
+        ApplicationLoader.applicationContext.getContentResolver().registerContentObserver(
+                CalendarContract.Calendars.CONTENT_URI, true, calendarObserver);
     }
 
+    /**
+     * Makes the synced calendar events match the given lessons. Only events of lessons that
+     * were added, changed or removed since the previous sync are written.
+     */
     public static synchronized void syncLessonsWithCalendar(Lesson[] lessons) {
         if (lessons == null) {
             return;
@@ -133,27 +180,151 @@ public class CalendarUtils {
             return;
         }
 
-        ContentResolver contentResolver = ApplicationLoader.applicationContext.getContentResolver();
+        Map<String, CalendarRow> rows = new HashMap<>();
+        for (CalendarRow row : DatabaseController.getInstance().getCalendarRows()) {
+            if (row.getLessonId() == null) {
+                // Synced before events were tracked per lesson
+                rows.put(Long.toString(row.getEventId()), row);
+                continue;
+            }
+            rows.put(getCalendarRowKey(row.getLessonId(), row.getScheduleId()), row);
+        }
+
+        List<CalendarRow> updatedRows = new ArrayList<>();
+        List<ContentValues> updateValues = new ArrayList<>();
+        List<ContentProviderOperation> updates = new ArrayList<>();
+        List<CalendarRow> addedRows = new ArrayList<>();
+        List<ContentProviderOperation> inserts = new ArrayList<>();
+        List<CalendarRow> removedRows = new ArrayList<>();
         for (Lesson lesson : lessons) {
-            ContentValues values = new ContentValues();
-            values.put(CalendarContract.Events.DTSTART, lesson.getStartTime().getTime());
-            values.put(CalendarContract.Events.DTEND, lesson.getEndTime().getTime());
-            values.put(CalendarContract.Events.TITLE, lesson.getSubject());
-            values.put(CalendarContract.Events.ALL_DAY, false);
-            values.put(CalendarContract.Events.TITLE, lesson.getSubject());
-            values.put(CalendarContract.Events.EVENT_LOCATION, lesson.getRoom());
-            values.put(CalendarContract.Events.EVENT_TIMEZONE, TimeZone.getDefault().getID());
-            values.put(CalendarContract.Events.CALENDAR_ID, calendarId);
-            values.put(CalendarContract.Events.EVENT_COLOR, ColorUtils.getColorById(lesson.getScheduleId()));
-
-            Uri eventUri = contentResolver.insert(CalendarContract.Events.CONTENT_URI, values);
-            if (eventUri == null) {
+            ContentValues values = getEventValues(lesson, calendarId);
+            int fingerprint = getFingerprint(values);
+
+            CalendarRow row = rows.remove(getCalendarRowKey(lesson.getId(),
+                    lesson.getScheduleId()));
+            if (row != null) {
+                if (row.getFingerprint() != fingerprint) {
+                    row.setFingerprint(fingerprint);
+                    updatedRows.add(row);
+                    updateValues.add(values);
+                    updates.add(ContentProviderOperation.newUpdate(ContentUris.withAppendedId(
+                            CalendarContract.Events.CONTENT_URI, row.getEventId()))
+                            .withValues(values)
+                            .build());
+                }
                 continue;
             }
+            addedRows.add(newCalendarRow(lesson, fingerprint));
+            inserts.add(ContentProviderOperation.newInsert(CalendarContract.Events.CONTENT_URI)
+                    .withValues(values)
+                    .build());
+        }
 
-            long id = ContentUris.parseId(eventUri);
-            DatabaseController.getInstance().addCalendarRow(id);
+        ContentResolver contentResolver = ApplicationLoader.applicationContext.getContentResolver();
+        ContentProviderResult[] results = applyInBatches(contentResolver, updates);
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                updatedRows.set(i, null);
+            } else if (results[i].count == null || results[i].count == 0) {
+                // The user removed the event, add it again
+                CalendarRow row = updatedRows.set(i, null);
+                removedRows.add(row);
+                addedRows.add(newCalendarRow(row.getLessonId(), row.getScheduleId(),
+                        row.getFingerprint()));
+                inserts.add(ContentProviderOperation.newInsert(CalendarContract.Events.CONTENT_URI)
+                        .withValues(updateValues.get(i))
+                        .build());
+            }
         }
+
+        results = applyInBatches(contentResolver, inserts);
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null || results[i].uri == null) {
+                addedRows.set(i, null);
+                continue;
+            }
+            addedRows.get(i).setEventId(ContentUris.parseId(results[i].uri));
+        }
+
+        // Whatever is left belongs to lessons that no longer exist
+        List<CalendarRow> leftoverRows = new ArrayList<>(rows.values());
+        List<ContentProviderOperation> deletes = new ArrayList<>();
+        for (CalendarRow row : leftoverRows) {
+            deletes.add(ContentProviderOperation.newDelete(ContentUris.withAppendedId(
+                    CalendarContract.Events.CONTENT_URI, row.getEventId())).build());
+        }
+        results = applyInBatches(contentResolver, deletes);
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] != null) {
+                removedRows.add(leftoverRows.get(i));
+            }
+        }
+
+        DatabaseController.getInstance().saveCalendarRowChanges(addedRows, updatedRows,
+                removedRows);
+    }
+
+    /**
+     * Applies the operations in chunks, every chunk is a single provider transaction
+     *
+     * @return the results, null for operations of chunks that failed
+     */
+    private static ContentProviderResult[] applyInBatches(ContentResolver contentResolver,
+                                                          List<ContentProviderOperation> operations) {
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        for (int start = 0; start < operations.size(); start += CALENDAR_BATCH_SIZE) {
+            int end = Math.min(start + CALENDAR_BATCH_SIZE, operations.size());
+            try {
+                ContentProviderResult[] batchResults = contentResolver.applyBatch(
+                        CalendarContract.AUTHORITY,
+                        new ArrayList<>(operations.subList(start, end)));
+                System.arraycopy(batchResults, 0, results, start, batchResults.length);
+            } catch (RemoteException | OperationApplicationException e) {
+                // The whole chunk was rolled back, it is retried on the next sync
+            }
+        }
+        return results;
+    }
+
+    private static CalendarRow newCalendarRow(Lesson lesson, int fingerprint) {
+        return newCalendarRow(lesson.getId(), lesson.getScheduleId(), fingerprint);
+    }
+
+    private static CalendarRow newCalendarRow(String lessonId, String scheduleId,
+                                              int fingerprint) {
+        CalendarRow row = new CalendarRow();
+        row.setLessonId(lessonId);
+        row.setScheduleId(scheduleId);
+        row.setFingerprint(fingerprint);
+        return row;
+    }
+
+    private static ContentValues getEventValues(Lesson lesson, long calendarId) {
+        ContentValues values = new ContentValues();
+        values.put(CalendarContract.Events.DTSTART, lesson.getStartTime().getTime());
+        values.put(CalendarContract.Events.DTEND, lesson.getEndTime().getTime());
+        values.put(CalendarContract.Events.TITLE, lesson.getSubject());
+        values.put(CalendarContract.Events.ALL_DAY, false);
+        values.put(CalendarContract.Events.EVENT_LOCATION, lesson.getRoom());
+        values.put(CalendarContract.Events.EVENT_TIMEZONE, TimeZone.getDefault().getID());
+        values.put(CalendarContract.Events.CALENDAR_ID, calendarId);
+        values.put(CalendarContract.Events.EVENT_COLOR, ColorUtils.getColorById(lesson.getScheduleId()));
+        return values;
+    }
+
+    private static int getFingerprint(ContentValues values) {
+        // ContentValues does not define a stable order, so join the fields explicitly
+        return (values.getAsString(CalendarContract.Events.DTSTART) + '|' +
+                values.getAsString(CalendarContract.Events.DTEND) + '|' +
+                values.getAsString(CalendarContract.Events.TITLE) + '|' +
+                values.getAsString(CalendarContract.Events.EVENT_LOCATION) + '|' +
+                values.getAsString(CalendarContract.Events.EVENT_TIMEZONE) + '|' +
+                values.getAsString(CalendarContract.Events.CALENDAR_ID) + '|' +
+                values.getAsString(CalendarContract.Events.EVENT_COLOR)).hashCode();
+    }
+
+    private static String getCalendarRowKey(String lessonId, String scheduleId) {
+        return scheduleId + '/' + lessonId;
     }
 
     public static synchronized void deleteAllLessonsFromCalendar() {
@@ -164,11 +335,22 @@ public class CalendarUtils {
         ContentResolver contentResolver = ApplicationLoader.applicationContext.getContentResolver();
 
         // First delete current calendar rows saved by us
-        long[] eventIds = DatabaseController.getInstance().getCalendarRows();
-        for (long eventId : eventIds) {
-            Uri eventUri = ContentUris.withAppendedId(CalendarContract.Events.CONTENT_URI, eventId);
-            contentResolver.delete(eventUri, null, null);
+        CalendarRow[] rows = DatabaseController.getInstance().getCalendarRows();
+        List<ContentProviderOperation> deletes = new ArrayList<>();
+        for (CalendarRow row : rows) {
+            deletes.add(ContentProviderOperation.newDelete(ContentUris.withAppendedId(
+                    CalendarContract.Events.CONTENT_URI, row.getEventId())).build());
+        }
+        ContentProviderResult[] results = applyInBatches(contentResolver, deletes);
+
+        // Rows of chunks that failed keep their event ids, so the events can still be removed
+        List<CalendarRow> removedRows = new ArrayList<>();
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] != null) {
+                removedRows.add(rows[i]);
+            }
         }
-        DatabaseController.getInstance().deleteAllCalendarRows();
+        DatabaseController.getInstance().saveCalendarRowChanges(new ArrayList<CalendarRow>(),
+                new ArrayList<CalendarRow>(), removedRows);
     }
 }
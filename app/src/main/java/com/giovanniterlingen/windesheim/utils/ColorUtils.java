@@ -58,6 +58,17 @@ public class ColorUtils {
         return color;
     }
 
+    /**
+     * Resolves the colors of all schedules with a single query, so binding views does not
+     * have to touch the database
+     */
+    public static void loadColors() {
+        String[] ids = DatabaseController.getInstance().getScheduleIds();
+        for (int i = 0; i < ids.length && i < colors.length; i++) {
+            cachedColors.put(ids[i], getColorByPosition(i));
+        }
+    }
+
     public static void invalidateColorCache() {
         cachedColors.evictAll();
     }
@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2019 Giovanni Terlingen
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ **/
+package com.giovanniterlingen.windesheim.utils;
+
+import com.giovanniterlingen.windesheim.ApplicationLoader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * A schedule app for students and teachers of Windesheim
+ *
+ * @author Giovanni Terlingen
+ */
+public class HttpCacheUtils {
+
+    private static final String CACHE_DIRECTORY = "http";
+
+    /**
+     * Adds If-None-Match and If-Modified-Since headers when we have seen this url before
+     */
+    public static void addConditionalHeaders(HttpURLConnection connection) {
+        Entry entry = readEntry(connection.getURL());
+        if (entry == null) {
+            return;
+        }
+        if (entry.eTag.length() > 0) {
+            connection.setRequestProperty("If-None-Match", entry.eTag);
+        }
+        if (entry.lastModified.length() > 0) {
+            connection.setRequestProperty("If-Modified-Since", entry.lastModified);
+        }
+    }
+
+    public static boolean isNotModified(HttpURLConnection connection) throws IOException {
+        return connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED;
+    }
+
+    /**
+     * Stores the validators of the response, and optionally its body
+     */
+    public static void put(HttpURLConnection connection, String body) {
+        String eTag = connection.getHeaderField("ETag");
+        String lastModified = connection.getHeaderField("Last-Modified");
+        if (eTag == null && lastModified == null) {
+            remove(connection.getURL());
+            return;
+        }
+        put(connection.getURL(), eTag, lastModified, body);
+    }
+
+    public static void put(URL url, String eTag, String lastModified, String body) {
+        File file = getFile(url);
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream outputStream = null;
+        try {
+            outputStream = new DataOutputStream(new FileOutputStream(tempFile));
+            outputStream.writeUTF(url.toString());
+            outputStream.writeUTF(eTag == null ? "" : eTag);
+            outputStream.writeUTF(lastModified == null ? "" : lastModified);
+            outputStream.writeBoolean(body != null);
+            if (body != null) {
+                outputStream.write(body.getBytes("UTF-8"));
+            }
+            outputStream.close();
+            outputStream = null;
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+            }
+        } catch (IOException e) {
+            tempFile.delete();
+        } finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException e) {
+                    //
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the cached body for this url, or null if we don't have one
+     */
+    public static String getBody(URL url) {
+        Entry entry = readEntry(url);
+        return entry == null ? null : entry.body;
+    }
+
+    public static void remove(URL url) {
+        getFile(url).delete();
+    }
+
+    private static Entry readEntry(URL url) {
+        File file = getFile(url);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream inputStream = null;
+        try {
+            inputStream = new DataInputStream(new FileInputStream(file));
+            if (!url.toString().equals(inputStream.readUTF())) {
+                return null;
+            }
+            Entry entry = new Entry();
+            entry.eTag = inputStream.readUTF();
+            entry.lastModified = inputStream.readUTF();
+            if (inputStream.readBoolean()) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, read);
+                }
+                entry.body = outputStream.toString("UTF-8");
+            }
+            return entry;
+        } catch (IOException e) {
+            file.delete();
+            return null;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    //
+                }
+            }
+        }
+    }
+
+    private static File getFile(URL url) {
+        File directory = new File(ApplicationLoader.applicationContext.getCacheDir(),
+                CACHE_DIRECTORY);
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        return new File(directory, Integer.toHexString(url.toString().hashCode()));
+    }
+
+    private static class Entry {
+        String eTag;
+        String lastModified;
+        String body;
+    }
+}
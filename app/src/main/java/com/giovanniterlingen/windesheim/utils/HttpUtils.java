@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2019 Giovanni Terlingen
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ **/
+package com.giovanniterlingen.windesheim.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A schedule app for students and teachers of Windesheim
+ *
+ * @author Giovanni Terlingen
+ */
+public class HttpUtils {
+
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+
+    static {
+        // Idle connections to api.windesheim.nl and elo.windesheim.nl are pooled and reused
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", Integer.toString(MAX_IDLE_CONNECTIONS));
+    }
+
+    public static HttpURLConnection openConnection(URL url, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setRequestMethod(method);
+        // Asking for compression ourselves turns off transparent decompression, which
+        // allows us to count how many bytes actually went over the wire. Deflate is left out,
+        // some servers send it without the zlib wrapper InflaterInputStream expects.
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        connection.setDoInput(true);
+        return connection;
+    }
+
+    public static InputStream getInputStream(HttpURLConnection connection) throws IOException {
+        return decode(connection, connection.getInputStream(), null);
+    }
+
+    /**
+     * @param byteCounter counts the bytes of this response only
+     */
+    public static InputStream getInputStream(HttpURLConnection connection,
+                                             ByteCounter byteCounter) throws IOException {
+        return decode(connection, connection.getInputStream(), byteCounter);
+    }
+
+    public static InputStream getErrorStream(HttpURLConnection connection) throws IOException {
+        InputStream errorStream = connection.getErrorStream();
+        if (errorStream == null) {
+            return null;
+        }
+        return decode(connection, errorStream, null);
+    }
+
+    /**
+     * Reads the remainder of the response and closes it, so the underlying connection can be
+     * handed back to the pool instead of being torn down.
+     */
+    public static void close(InputStream inputStream) {
+        if (inputStream == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[1024];
+            while (inputStream.read(buffer) != -1) {
+                // Drain the response
+            }
+        } catch (IOException e) {
+            //
+        } finally {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                //
+            }
+        }
+    }
+
+    private static InputStream decode(HttpURLConnection connection, InputStream inputStream,
+                                      ByteCounter byteCounter) throws IOException {
+        if (byteCounter != null) {
+            inputStream = new CountingInputStream(inputStream, byteCounter.bytesOnWire);
+        }
+        if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+            inputStream = new GZIPInputStream(inputStream);
+        }
+        if (byteCounter != null) {
+            inputStream = new CountingInputStream(inputStream, byteCounter.bytesDecoded);
+        }
+        return inputStream;
+    }
+
+    /**
+     * Counts how many bytes of a response went over the wire and how many that are decoded
+     */
+    public static class ByteCounter {
+
+        private final AtomicLong bytesOnWire = new AtomicLong();
+        private final AtomicLong bytesDecoded = new AtomicLong();
+
+        public long getBytesOnWire() {
+            return bytesOnWire.get();
+        }
+
+        public long getBytesDecoded() {
+            return bytesDecoded.get();
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private final AtomicLong counter;
+
+        CountingInputStream(InputStream inputStream, AtomicLong counter) {
+            super(inputStream);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read != -1) {
+                counter.incrementAndGet();
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                counter.addAndGet(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(count);
+            counter.addAndGet(skipped);
+            return skipped;
+        }
+    }
+}
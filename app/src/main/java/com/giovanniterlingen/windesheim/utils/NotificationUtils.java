@@ -30,16 +30,20 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
-import android.provider.Settings;
+import android.content.res.Resources;
+import android.util.SparseArray;
 
-import androidx.annotation.RequiresApi;
 import androidx.core.app.NotificationCompat;
 import androidx.core.content.ContextCompat;
 
 import com.giovanniterlingen.windesheim.ApplicationLoader;
 import com.giovanniterlingen.windesheim.R;
+import com.giovanniterlingen.windesheim.models.ScheduleChanges;
+import com.giovanniterlingen.windesheim.view.DownloadsActivity;
 import com.giovanniterlingen.windesheim.view.ScheduleActivity;
 
+import java.text.NumberFormat;
+
 /**
  * A schedule app for students and teachers of Windesheim
  *
@@ -47,14 +51,23 @@ import com.giovanniterlingen.windesheim.view.ScheduleActivity;
  */
 public class NotificationUtils {
 
-    public static final int SERVICE_NOTIFICATION_ID = 2;
     private static final String PERSISTENT_NOTIFICATION_CHANNEL = "com.giovanniterlingen.windesheim.notification.persistent";
     private static final String PUSH_NOTIFICATION_CHANNEL = "com.giovanniterlingen.windesheim.notification.push";
+    // Used by the foreground service that kept the notification thread alive
     private static final String SERVICE_NOTIFICATION_CHANNEL = "com.giovanniterlingen.windesheim.notification.service";
     private static final int LESSON_NOTIFICATION_ID = 0;
     private static final int SCHEDULE_CHANGED_NOTIFICATION_ID = 1;
+    public static final int DOWNLOAD_NOTIFICATION_ID = 2;
+    private static final String DOWNLOAD_NOTIFICATION_CHANNEL = "com.giovanniterlingen.windesheim.notification.download";
     private static volatile NotificationUtils Instance = null;
     private final NotificationManager mNotificationManager;
+    private final SparseArray<LessonNotification> lessonNotifications = new SparseArray<>();
+    private PendingIntent contentIntent;
+    // The notification may still be shown by a previous process, so assume an ongoing one
+    private boolean posted = true;
+    private String lastText;
+    private boolean lastOnGoing = true;
+    private boolean lastHeadsUp;
 
     private NotificationUtils() {
         this.mNotificationManager = (NotificationManager) ApplicationLoader.applicationContext
@@ -74,26 +87,24 @@ public class NotificationUtils {
         return localInstance;
     }
 
-    public void createScheduleChangedNotification() {
-        Intent intent = new Intent(ApplicationLoader.applicationContext, ScheduleActivity.class);
-        intent.putExtra("notification", true);
-        PendingIntent pendingIntent = PendingIntent
-                .getActivity(ApplicationLoader.applicationContext, (int) System.currentTimeMillis(),
-                        intent, 0);
+    public synchronized void createScheduleChangedNotification(ScheduleChanges changes) {
+        Resources resources = ApplicationLoader.applicationContext.getResources();
+        StringBuilder summary = new StringBuilder(resources.getString(R.string.schedule_changed));
+        appendChangeCount(summary, R.plurals.lessons_added, changes.getAdded().size());
+        appendChangeCount(summary, R.plurals.lessons_moved, changes.getMoved().size());
+        appendChangeCount(summary, R.plurals.lessons_changed, changes.getChanged().size());
+        appendChangeCount(summary, R.plurals.lessons_removed, changes.getRemoved().size());
 
         NotificationCompat.Builder mBuilder = new NotificationCompat.Builder(
                 ApplicationLoader.applicationContext, PUSH_NOTIFICATION_CHANNEL)
-                .setContentTitle(ApplicationLoader.applicationContext.getResources()
-                        .getString(R.string.app_name))
-                .setContentText(ApplicationLoader.applicationContext.getResources()
-                        .getString(R.string.schedule_changed))
-                .setContentIntent(pendingIntent)
+                .setContentTitle(resources.getString(R.string.app_name))
+                .setContentText(resources.getString(R.string.schedule_changed))
+                .setContentIntent(getContentIntent())
                 .setSmallIcon(R.drawable.notifybar)
                 .setOngoing(false)
                 .setAutoCancel(true)
                 .setStyle(new NotificationCompat.BigTextStyle()
-                        .bigText(ApplicationLoader.applicationContext.getResources()
-                                .getString(R.string.schedule_changed)))
+                        .bigText(summary.toString()))
                 .setColor(ContextCompat.getColor(ApplicationLoader.applicationContext,
                         R.color.colorPrimary))
                 .setPriority(NotificationCompat.PRIORITY_HIGH)
@@ -102,40 +113,100 @@ public class NotificationUtils {
         mNotificationManager.notify(SCHEDULE_CHANGED_NOTIFICATION_ID, mBuilder.build());
     }
 
-    public void createNotification(String notificationText, boolean onGoing, boolean headsUp) {
-        Intent intent = new Intent(ApplicationLoader.applicationContext,
-                ScheduleActivity.class);
-        intent.putExtra("notification", true);
-        PendingIntent pendingIntent = PendingIntent
-                .getActivity(ApplicationLoader.applicationContext,
-                        (int) System.currentTimeMillis(),
-                        intent, 0);
-
-        NotificationCompat.Builder mBuilder = new NotificationCompat.Builder(
-                ApplicationLoader.applicationContext, headsUp ? PUSH_NOTIFICATION_CHANNEL :
-                PERSISTENT_NOTIFICATION_CHANNEL)
-                .setContentTitle(ApplicationLoader.applicationContext.getResources()
-                        .getString(R.string.app_name))
-                .setContentText(notificationText)
+    /**
+     * @param progress the average progress of the downloads, or -1 if it is not known yet
+     */
+    public Notification createDownloadNotification(int count, int progress) {
+        Resources resources = ApplicationLoader.applicationContext.getResources();
+        Intent intent = new Intent(ApplicationLoader.applicationContext, DownloadsActivity.class);
+        PendingIntent pendingIntent = PendingIntent.getActivity(
+                ApplicationLoader.applicationContext, 0, intent, 0);
+        return new NotificationCompat.Builder(ApplicationLoader.applicationContext,
+                DOWNLOAD_NOTIFICATION_CHANNEL)
+                .setContentTitle(resources.getString(R.string.downloading))
+                .setContentText(resources.getQuantityString(R.plurals.files_left, count,
+                        NumberFormat.getInstance().format(count)))
                 .setContentIntent(pendingIntent)
-                .setSmallIcon(R.drawable.notifybar)
-                .setOngoing(onGoing)
-                .setAutoCancel(!onGoing)
-                .setStyle(new NotificationCompat.BigTextStyle()
-                        .bigText(notificationText))
+                .setSmallIcon(android.R.drawable.stat_sys_download)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setProgress(100, Math.max(progress, 0), progress < 0)
                 .setColor(ContextCompat.getColor(ApplicationLoader.applicationContext,
-                        R.color.colorPrimary));
-        if (headsUp) {
-            mBuilder.setPriority(NotificationCompat.PRIORITY_HIGH);
-            mBuilder.setDefaults(Notification.DEFAULT_ALL);
-        } else if (onGoing) {
-            mBuilder.setPriority(NotificationCompat.PRIORITY_MIN);
+                        R.color.colorPrimary))
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .build();
+    }
+
+    public void updateDownloadNotification(int count, int progress) {
+        mNotificationManager.notify(DOWNLOAD_NOTIFICATION_ID,
+                createDownloadNotification(count, progress));
+    }
+
+    private void appendChangeCount(StringBuilder summary, int id, int count) {
+        if (count == 0) {
+            return;
         }
-        mNotificationManager.notify(LESSON_NOTIFICATION_ID, mBuilder.build());
+        summary.append('\n').append(ApplicationLoader.applicationContext.getResources()
+                .getQuantityString(id, count, NumberFormat.getInstance().format(count)));
     }
 
-    public void clearNotification() {
+    /**
+     * Posts the lesson notification, unless exactly the same ongoing notification is shown
+     * already. The builders and content intent are reused between posts.
+     */
+    public synchronized void createNotification(String notificationText, boolean onGoing,
+                                                boolean headsUp) {
+        if (onGoing && posted && lastOnGoing && lastHeadsUp == headsUp &&
+                notificationText.equals(lastText)) {
+            return;
+        }
+
+        int key = (onGoing ? 1 : 0) | (headsUp ? 2 : 0);
+        LessonNotification notification = lessonNotifications.get(key);
+        if (notification == null) {
+            notification = new LessonNotification(onGoing, headsUp);
+            lessonNotifications.put(key, notification);
+        }
+        notification.style.bigText(notificationText);
+        notification.builder
+                .setContentText(notificationText)
+                .setWhen(TimeUtils.currentTimeMillis());
+        mNotificationManager.notify(LESSON_NOTIFICATION_ID, notification.builder.build());
+        posted = true;
+        lastText = notificationText;
+        lastOnGoing = onGoing;
+        lastHeadsUp = headsUp;
+    }
+
+    public synchronized void clearNotification() {
+        if (!posted) {
+            return;
+        }
         mNotificationManager.cancel(LESSON_NOTIFICATION_ID);
+        posted = false;
+        lastText = null;
+    }
+
+    /**
+     * Clears the lesson notification only when it is the ongoing countdown, a reminder stays
+     * until it is swiped away
+     */
+    public synchronized void clearOngoingNotification() {
+        if (!posted || !lastOnGoing) {
+            return;
+        }
+        clearNotification();
+    }
+
+    private PendingIntent getContentIntent() {
+        if (contentIntent == null) {
+            Intent intent = new Intent(ApplicationLoader.applicationContext,
+                    ScheduleActivity.class);
+            intent.putExtra("notification", true);
+            contentIntent = PendingIntent.getActivity(ApplicationLoader.applicationContext, 0,
+                    intent, PendingIntent.FLAG_UPDATE_CURRENT);
+        }
+        return contentIntent;
     }
 
     public void initNotificationChannels() {
@@ -165,18 +236,17 @@ public class NotificationUtils {
             persistentChannel.setLockscreenVisibility(Notification.VISIBILITY_PUBLIC);
             persistentChannel.setSound(null, null);
 
-            NotificationChannel serviceChannel = new NotificationChannel(
-                    SERVICE_NOTIFICATION_CHANNEL, ApplicationLoader.applicationContext.getResources()
-                    .getString(R.string.service_notification),
-                    NotificationManager.IMPORTANCE_MIN);
+            NotificationChannel downloadChannel = new NotificationChannel(
+                    DOWNLOAD_NOTIFICATION_CHANNEL, ApplicationLoader.applicationContext
+                    .getResources().getString(R.string.downloads),
+                    NotificationManager.IMPORTANCE_LOW);
 
-            serviceChannel.setDescription(ApplicationLoader.applicationContext.getResources()
-                    .getString(R.string.service_notification_description));
-            serviceChannel.enableLights(false);
-            serviceChannel.enableVibration(false);
-            serviceChannel.setShowBadge(false);
-            serviceChannel.setLockscreenVisibility(Notification.VISIBILITY_SECRET);
-            serviceChannel.setSound(null, null);
+            downloadChannel.setDescription(ApplicationLoader.applicationContext.getResources()
+                    .getString(R.string.downloads_notification_description));
+            downloadChannel.enableLights(false);
+            downloadChannel.enableVibration(false);
+            downloadChannel.setShowBadge(false);
+            downloadChannel.setSound(null, null);
 
             NotificationManager manager = (NotificationManager) ApplicationLoader
                     .applicationContext.getSystemService(Context.NOTIFICATION_SERVICE);
@@ -189,37 +259,40 @@ public class NotificationUtils {
             if (manager.getNotificationChannel(PERSISTENT_NOTIFICATION_CHANNEL) == null) {
                 manager.createNotificationChannel(persistentChannel);
             }
-            if (manager.getNotificationChannel(SERVICE_NOTIFICATION_CHANNEL) == null) {
-                manager.createNotificationChannel(serviceChannel);
+            if (manager.getNotificationChannel(DOWNLOAD_NOTIFICATION_CHANNEL) == null) {
+                manager.createNotificationChannel(downloadChannel);
+            }
+            if (manager.getNotificationChannel(SERVICE_NOTIFICATION_CHANNEL) != null) {
+                manager.deleteNotificationChannel(SERVICE_NOTIFICATION_CHANNEL);
             }
         }
     }
 
-    @RequiresApi(api = 26)
-    public Notification getServiceNotification() {
-        Intent intent = new Intent(Settings.ACTION_CHANNEL_NOTIFICATION_SETTINGS);
-        intent.putExtra(Settings.EXTRA_APP_PACKAGE, ApplicationLoader.applicationContext.getPackageName());
-        intent.putExtra(Settings.EXTRA_CHANNEL_ID, SERVICE_NOTIFICATION_CHANNEL);
-
-        PendingIntent pendingIntent = PendingIntent
-                .getActivity(ApplicationLoader.applicationContext, (int) System.currentTimeMillis(),
-                        intent, 0);
+    private class LessonNotification {
 
-        NotificationCompat.Builder mBuilder = new NotificationCompat.Builder(
-                ApplicationLoader.applicationContext, SERVICE_NOTIFICATION_CHANNEL)
-                .setContentTitle(ApplicationLoader.applicationContext.getResources()
-                        .getString(R.string.app_name))
-                .setContentText(ApplicationLoader.applicationContext.getResources()
-                        .getString(R.string.disable_notification_description))
-                .setStyle(new NotificationCompat.BigTextStyle()
-                        .bigText(ApplicationLoader.applicationContext.getResources()
-                                .getString(R.string.disable_notification_description)))
-                .setOngoing(true)
-                .setSmallIcon(R.drawable.notifybar)
-                .setPriority(NotificationCompat.PRIORITY_MIN)
-                .setCategory(Notification.CATEGORY_SERVICE)
-                .setContentIntent(pendingIntent);
+        private final NotificationCompat.Builder builder;
+        private final NotificationCompat.BigTextStyle style;
 
-        return mBuilder.build();
+        LessonNotification(boolean onGoing, boolean headsUp) {
+            style = new NotificationCompat.BigTextStyle();
+            builder = new NotificationCompat.Builder(ApplicationLoader.applicationContext,
+                    headsUp ? PUSH_NOTIFICATION_CHANNEL : PERSISTENT_NOTIFICATION_CHANNEL)
+                    .setContentTitle(ApplicationLoader.applicationContext.getResources()
+                            .getString(R.string.app_name))
+                    .setContentIntent(getContentIntent())
+                    .setSmallIcon(R.drawable.notifybar)
+                    .setOngoing(onGoing)
+                    .setOnlyAlertOnce(onGoing)
+                    .setAutoCancel(!onGoing)
+                    .setStyle(style)
+                    .setColor(ContextCompat.getColor(ApplicationLoader.applicationContext,
+                            R.color.colorPrimary));
+            if (headsUp) {
+                builder.setPriority(NotificationCompat.PRIORITY_HIGH);
+                builder.setDefaults(Notification.DEFAULT_ALL);
+            } else if (onGoing) {
+                builder.setPriority(NotificationCompat.PRIORITY_MIN);
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -24,12 +24,15 @@
  **/
 package com.giovanniterlingen.windesheim.utils;
 
+import androidx.annotation.VisibleForTesting;
+
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.Locale;
 import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A schedule app for students and teachers of Windesheim
@@ -38,13 +41,15 @@ import java.util.TimeZone;
  */
 public class TimeUtils {
 
-    private static final SimpleDateFormat yearMonthDayDateFormat = new SimpleDateFormat("yyyyMMdd", Locale.FRANCE);
     private static final SimpleDateFormat dayDateFormat = new SimpleDateFormat("dd", Locale.FRANCE);
     private static final SimpleDateFormat hourMinuteFormat = new SimpleDateFormat("HH:mm", Locale.FRANCE);
-
-    public static SimpleDateFormat getYearMonthDayDateFormat() {
-        return yearMonthDayDateFormat;
-    }
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+    private static volatile Clock clock = SYSTEM_CLOCK;
 
     public static SimpleDateFormat getDayDateFormat() {
         return dayDateFormat;
@@ -54,20 +59,68 @@ public class TimeUtils {
         return hourMinuteFormat;
     }
 
-    public static Calendar getCalendar() {
-        return GregorianCalendar.getInstance(Locale.FRANCE);
+    /**
+     * Replaces the clock all schedule and notification timing is based on,
+     * e.g. to simulate a week of notifications. Passing null restores the system clock.
+     */
+    @VisibleForTesting
+    public static void setClock(Clock newClock) {
+        clock = newClock == null ? SYSTEM_CLOCK : newClock;
+    }
+
+    public static long currentTimeMillis() {
+        return clock.currentTimeMillis();
     }
 
-    public static String[] getWeekDates(Date date) {
-        SimpleDateFormat yearMonthDateFormat = getYearMonthDayDateFormat();
+    public static Date now() {
+        return new Date(clock.currentTimeMillis());
+    }
+
+    public static Calendar getCalendar() {
         Calendar calendar = GregorianCalendar.getInstance(Locale.FRANCE);
-        calendar.setTimeZone(TimeZone.getTimeZone("UTC"));
-        calendar.setTime(date);
-        calendar.set(GregorianCalendar.DAY_OF_WEEK, GregorianCalendar.MONDAY);
-        String lowestDate = yearMonthDateFormat.format(calendar.getTime());
-        calendar.add(GregorianCalendar.DATE, 6);
-        String highestDate = yearMonthDateFormat.format(calendar.getTime());
-        return new String[]{lowestDate, highestDate};
+        calendar.setTimeInMillis(clock.currentTimeMillis());
+        return calendar;
+    }
+
+    /**
+     * @return the first millisecond of the day the given time is on
+     */
+    public static long getStartOfDay(long time) {
+        Calendar calendar = getCalendar();
+        calendar.setTimeInMillis(time);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * @return the first millisecond of the day after the given time
+     */
+    public static long getStartOfNextDay(long time) {
+        Calendar calendar = getCalendar();
+        calendar.setTimeInMillis(getStartOfDay(time));
+        calendar.add(Calendar.DATE, 1);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * @return the number of days since epoch in the local time zone
+     */
+    public static int getDayNumber(Date date) {
+        long time = date.getTime();
+        return (int) TimeUnit.MILLISECONDS.toDays(time + TimeZone.getDefault().getOffset(time));
+    }
+
+    /**
+     * @return the day numbers of monday and sunday in the week of the given date
+     */
+    public static int[] getWeekDayNumbers(Date date) {
+        int dayNumber = getDayNumber(date);
+        // Epoch started on a thursday
+        int monday = dayNumber - (dayNumber + 3) % 7;
+        return new int[]{monday, monday + 6};
     }
 
     /**
@@ -77,4 +130,9 @@ public class TimeUtils {
         time -= TimeZone.getTimeZone("Europe/Amsterdam").getOffset(time);
         return time;
     }
+
+    public interface Clock {
+
+        long currentTimeMillis();
+    }
 }
@@ -83,8 +83,11 @@ public class HiddenLessonsAdapter extends RecyclerView.Adapter<HiddenLessonsAdap
         Button button = holder.itemView.findViewById(R.id.restore_button);
         button.setOnClickListener(new View.OnClickListener() {
             public void onClick(View v) {
-                Lesson lesson = lessons[holder.getAdapterPosition()];
-                DatabaseController.getInstance().restoreLesson(lesson);
+                int position = holder.getAdapterPosition();
+                if (position == RecyclerView.NO_POSITION) {
+                    return;
+                }
+                Lesson lesson = lessons[position];
 
                 Bundle bundle = new Bundle();
                 bundle.putString(Constants.TELEMETRY_PROPERTY_NAME, lesson.getSubject());
@@ -94,12 +97,22 @@ public class HiddenLessonsAdapter extends RecyclerView.Adapter<HiddenLessonsAdap
 
                 activity.showSnackbar();
 
-                ApplicationLoader.restartNotificationThread();
-
-                updateLessons(DatabaseController.getInstance().getHiddenLessons());
-                if (lessons.length == 0) {
-                    activity.showEmptyTextView();
-                }
+                DatabaseController.restoreLessonAsync(lesson, new Runnable() {
+                    @Override
+                    public void run() {
+                        ApplicationLoader.rescheduleNotifications();
+                        DatabaseController.getHiddenLessonsAsync(
+                                new DatabaseController.Callback<Lesson[]>() {
+                                    @Override
+                                    public void onResult(Lesson[] result) {
+                                        updateLessons(result);
+                                        if (lessons.length == 0) {
+                                            activity.showEmptyTextView();
+                                        }
+                                    }
+                                });
+                    }
+                });
             }
         });
     }
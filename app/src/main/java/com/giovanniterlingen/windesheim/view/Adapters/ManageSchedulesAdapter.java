@@ -103,7 +103,7 @@ public class ManageSchedulesAdapter extends RecyclerView.Adapter<ManageSchedules
                                 TelemetryUtils.getInstance()
                                         .logEvent(Constants.TELEMETRY_KEY_SCHEDULE_DELETED, bundle);
 
-                                ApplicationLoader.restartNotificationThread();
+                                ApplicationLoader.rescheduleNotifications();
 
                                 ColorUtils.invalidateColorCache();
                                 schedules = DatabaseController.getInstance().getSchedules();
@@ -281,8 +281,14 @@ public abstract class NatschoolContentAdapter extends RecyclerView.Adapter<Natsc
         return content.size();
     }
 
+    public void updateContent(List<NatschoolContent> content) {
+        this.content.clear();
+        this.content.addAll(content);
+        notifyDataSetChanged();
+    }
+
     public void updateItemStarted(int position, int itemId) {
-        if (content.size() > position && content.get(position).id == itemId) {
+        if (position >= 0 && content.size() > position && content.get(position).id == itemId) {
             content.get(position).downloading = true;
             content.get(position).progress = -1;
             content.get(position).progressString = null;
@@ -302,7 +308,7 @@ public abstract class NatschoolContentAdapter extends RecyclerView.Adapter<Natsc
     }
 
     public void updateItemProgress(int position, int itemId, int progress, String progressString) {
-        if (content.size() > position && content.get(position).id == itemId) {
+        if (position >= 0 && content.size() > position && content.get(position).id == itemId) {
             content.get(position).downloading = true;
             content.get(position).progress = progress;
             content.get(position).progressString = progressString;
@@ -322,7 +328,7 @@ public abstract class NatschoolContentAdapter extends RecyclerView.Adapter<Natsc
     }
 
     public void updateItemFinished(int position, int itemId) {
-        if (content.size() > position && content.get(position).id == itemId) {
+        if (position >= 0 && content.size() > position && content.get(position).id == itemId) {
             content.get(position).downloading = false;
             notifyItemChanged(position);
             return;
@@ -91,7 +91,7 @@ public class ScheduleAdapter extends RecyclerView.Adapter<ScheduleAdapter.ViewHo
         Lesson lesson = this.lessons[position];
         long startTime = lesson.getStartTime().getTime();
         long endTime = lesson.getEndTime().getTime();
-        long currentTime = System.currentTimeMillis();
+        long currentTime = TimeUtils.currentTimeMillis();
 
         lessonName.setText(lesson.getSubject());
         lessonRoom.setText(lesson.getRoom());
@@ -240,19 +240,19 @@ public class ScheduleAdapter extends RecyclerView.Adapter<ScheduleAdapter.ViewHo
                 .setPositiveButton(activity.getResources().getString(R.string.hide),
                         new DialogInterface.OnClickListener() {
                             public void onClick(DialogInterface dialog, int id) {
-                                DatabaseController.getInstance().hideLesson(lesson);
-
                                 Bundle bundle = new Bundle();
                                 bundle.putString(Constants.TELEMETRY_PROPERTY_NAME,
                                         lesson.getSubject());
                                 TelemetryUtils.getInstance()
                                         .logEvent(Constants.TELEMETRY_KEY_LESSON_HIDDEN, bundle);
 
-                                updateLessons(DatabaseController.getInstance().getLessons(date));
-                                final boolean isEmpty = getItemCount() == 0;
-                                if (isEmpty) {
-                                    activity.updateFragmentView();
-                                }
+                                DatabaseController.hideLessonAsync(lesson, new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        reloadLessons();
+                                        ApplicationLoader.rescheduleNotifications();
+                                    }
+                                });
                                 Snackbar snackbar = Snackbar.make(activity
                                                 .findViewById(R.id.coordinator_layout),
                                         activity.getResources().getString(R.string.lesson_hidden),
@@ -261,28 +261,27 @@ public class ScheduleAdapter extends RecyclerView.Adapter<ScheduleAdapter.ViewHo
                                         .getString(R.string.undo), new View.OnClickListener() {
                                     @Override
                                     public void onClick(View view) {
-                                        DatabaseController.getInstance().restoreLesson(lesson);
-
                                         Bundle bundle = new Bundle();
                                         bundle.putString(Constants.TELEMETRY_PROPERTY_NAME,
                                                 lesson.getSubject());
                                         TelemetryUtils.getInstance()
                                                 .logEvent(Constants.TELEMETRY_KEY_LESSON_RESTORED, bundle);
 
-                                        updateLessons(DatabaseController.getInstance().getLessons(date));
-                                        if (isEmpty) {
-                                            activity.updateFragmentView();
-                                        }
+                                        DatabaseController.restoreLessonAsync(lesson, new Runnable() {
+                                            @Override
+                                            public void run() {
+                                                reloadLessons();
+                                                ApplicationLoader.rescheduleNotifications();
+                                            }
+                                        });
                                         Snackbar snackbar1 = Snackbar.make(activity
                                                         .findViewById(R.id.coordinator_layout),
                                                 activity.getResources().getString(R.string.lesson_restored),
                                                 Snackbar.LENGTH_SHORT);
                                         snackbar1.show();
-                                        ApplicationLoader.restartNotificationThread();
                                     }
                                 });
                                 snackbar.show();
-                                ApplicationLoader.restartNotificationThread();
                                 dialog.cancel();
                             }
                         })
@@ -312,6 +311,16 @@ public class ScheduleAdapter extends RecyclerView.Adapter<ScheduleAdapter.ViewHo
         notifyDataSetChanged();
     }
 
+    private void reloadLessons() {
+        DatabaseController.getLessonsAsync(date, new DatabaseController.Callback<Lesson[]>() {
+            @Override
+            public void onResult(Lesson[] result) {
+                updateLessons(result);
+                activity.updateFragmentView();
+            }
+        });
+    }
+
     class ViewHolder extends RecyclerView.ViewHolder {
 
         final TextView lessonName;
@@ -30,6 +30,9 @@ import android.content.Intent;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ProgressBar;
@@ -47,9 +50,12 @@ import com.giovanniterlingen.windesheim.Constants;
 import com.giovanniterlingen.windesheim.NotificationCenter;
 import com.giovanniterlingen.windesheim.R;
 import com.giovanniterlingen.windesheim.controllers.DownloadController;
+import com.giovanniterlingen.windesheim.controllers.DownloadQueue;
+import com.giovanniterlingen.windesheim.controllers.FolderDownloadController;
+import com.giovanniterlingen.windesheim.controllers.NatschoolController;
 import com.giovanniterlingen.windesheim.models.Download;
 import com.giovanniterlingen.windesheim.models.NatschoolContent;
-import com.giovanniterlingen.windesheim.utils.CookieUtils;
+import com.giovanniterlingen.windesheim.models.NatschoolFolder;
 import com.giovanniterlingen.windesheim.utils.TelemetryUtils;
 import com.giovanniterlingen.windesheim.utils.WebViewUtils;
 import com.giovanniterlingen.windesheim.view.Adapters.NatschoolContentAdapter;
@@ -57,17 +63,9 @@ import com.giovanniterlingen.windesheim.view.AuthenticationActivity;
 import com.giovanniterlingen.windesheim.view.NatschoolActivity;
 
 import org.jetbrains.annotations.NotNull;
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.ref.WeakReference;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -83,6 +81,7 @@ public class ContentsFragment extends Fragment
     private static final String PARENT_ID = "PARENT_ID";
     private static final String STUDYROUTE_NAME = "STUDYROUTE_NAME";
     private int studyRouteId = -1;
+    private int parentId = -1;
     private RecyclerView recyclerView;
     private ProgressBar progressBar;
 
@@ -120,8 +119,10 @@ public class ContentsFragment extends Fragment
         }
         new NatschoolFetcher((bundle == null ? -1 :
                 (studyRouteId = bundle.getInt(STUDYROUTE_ID))),
-                (bundle == null ? -1 : bundle.getInt(PARENT_ID, -1)), this)
+                (bundle == null ? -1 : (parentId = bundle.getInt(PARENT_ID, -1))), this)
                 .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        // Only folders of a study route can be downloaded, not the list of courses
+        setHasOptionsMenu(studyRouteId != -1);
 
         return viewGroup;
     }
@@ -146,6 +147,20 @@ public class ContentsFragment extends Fragment
         webviewUtils.intentCustomTab(url);
     }
 
+    @Override
+    public void onCreateOptionsMenu(@NotNull Menu menu, @NotNull MenuInflater inflater) {
+        inflater.inflate(R.menu.menu_contents, menu);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(@NotNull MenuItem item) {
+        if (item.getItemId() == R.id.download_folder) {
+            new FolderDownloadController(studyRouteId, parentId).start();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
@@ -173,9 +188,9 @@ public class ContentsFragment extends Fragment
         }
     }
 
-    private static class NatschoolFetcher extends AsyncTask<Void, Void, Void> {
+    private static class NatschoolFetcher extends AsyncTask<Void, List<NatschoolContent>,
+            List<NatschoolContent>> {
 
-        private final List<NatschoolContent> content = new ArrayList<>();
         private final WeakReference<ContentsFragment> weakReference;
         private final String type;
         private final int courseId;
@@ -192,23 +207,73 @@ public class ContentsFragment extends Fragment
             weakReference = new WeakReference<>(contentsFragment);
         }
 
+        /**
+         * Publishes the cached contents right away, then asks the server for the latest
+         * contents unless the cache is fresh
+         */
         @Override
-        protected Void doInBackground(Void... params) {
-            if ("courses".equals(type)) {
-                createWebRequest("LoadStudyroutes", "start=0&length=1000&filter=0&search=");
-                return null;
+        @SuppressWarnings("unchecked")
+        protected List<NatschoolContent> doInBackground(Void... params) {
+            NatschoolFolder folder = "courses".equals(type) ?
+                    NatschoolController.getCachedStudyRoutes() :
+                    NatschoolController.getCachedStudyRouteContent(courseId, id);
+            if (folder != null) {
+                publishProgress(addDownloadState(folder.getContents()));
+                if (NatschoolController.isFresh(folder)) {
+                    return null;
+                }
             }
-            if ("content".equals(type)) {
-                createWebRequest("LoadStudyrouteContent", "studyrouteid=" + courseId + "&parentid="
-                        + id + "&start=0&length=100");
+            try {
+                if ("courses".equals(type)) {
+                    return NatschoolController.getStudyRoutes();
+                }
+                return addDownloadState(NatschoolController.getStudyRouteContent(courseId, id));
+            } catch (Exception e) {
+                // Keep showing the cached contents when we are offline
+                if (folder == null || e instanceof JSONException) {
+                    handleException(e);
+                }
             }
             return null;
         }
 
+        private List<NatschoolContent> addDownloadState(List<NatschoolContent> content) {
+            for (NatschoolContent natschoolContent : content) {
+                Download currentDownload = DownloadQueue.getInstance()
+                        .getDownload(natschoolContent.id);
+                if (currentDownload == null) {
+                    natschoolContent.downloading = false;
+                } else {
+                    natschoolContent.downloading = true;
+                    natschoolContent.progress = currentDownload.getProgress();
+                    natschoolContent.progressString = currentDownload.getProgressString();
+                }
+            }
+            return content;
+        }
+
         @Override
-        protected void onPostExecute(Void aVoid) {
-            super.onPostExecute(aVoid);
+        protected void onProgressUpdate(List<NatschoolContent>... cached) {
+            super.onProgressUpdate(cached);
+            showContent(cached[0]);
+        }
+
+        @Override
+        protected void onPostExecute(List<NatschoolContent> content) {
+            super.onPostExecute(content);
+
+            final ContentsFragment fragment = weakReference.get();
+            if (fragment == null) {
+                return;
+            }
+            if (content != null) {
+                showContent(content);
+            } else if (fragment.recyclerView.getAdapter() == null) {
+                showContent(new ArrayList<NatschoolContent>());
+            }
+        }
 
+        private void showContent(List<NatschoolContent> content) {
             final ContentsFragment fragment = weakReference.get();
             if (fragment == null) {
                 return;
@@ -228,6 +293,14 @@ public class ContentsFragment extends Fragment
                 emptyTextView.setVisibility(View.GONE);
             }
 
+            NatschoolContentAdapter currentAdapter =
+                    (NatschoolContentAdapter) fragment.recyclerView.getAdapter();
+            if (currentAdapter != null) {
+                // Revalidated contents, keep the scroll position
+                currentAdapter.updateContent(content);
+                return;
+            }
+
             NatschoolContentAdapter adapter = new NatschoolContentAdapter(fragment.getActivity(), content) {
                 @Override
                 protected void onContentClick(NatschoolContent content, int position) {
@@ -261,135 +334,59 @@ public class ContentsFragment extends Fragment
                                 .logEvent(Constants.TELEMETRY_KEY_DOWNLOAD_STARTED, bundle);
 
                         new DownloadController(fragment.getActivity(), content.url,
-                                fragment.studyRouteId, content.id, position)
-                                .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+                                fragment.studyRouteId, content.id, position).start();
                     }
                 }
             };
             fragment.recyclerView.setAdapter(adapter);
         }
 
-        private void createWebRequest(final String path, final String urlParameters) {
-            HttpURLConnection connection = null;
-            try {
-                URL url = new URL("https://elo.windesheim.nl/services/Studyroutemobile.asmx/"
-                        + path + "?" + urlParameters);
-                connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("POST");
-                connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-                connection.setRequestProperty("Content-Length", Integer
-                        .toString(urlParameters.getBytes().length));
-                connection.setRequestProperty("Content-Language", "en-US");
-                connection.setRequestProperty("Cookie", CookieUtils.getNatSchoolCookie());
-
-                connection.setUseCaches(false);
-                connection.setDoInput(true);
-                connection.setDoOutput(true);
-
-                DataOutputStream wr = new DataOutputStream(connection.getOutputStream());
-                wr.writeBytes(urlParameters);
-                wr.flush();
-                wr.close();
-
-                int status = connection.getResponseCode();
-
-                InputStream is = status >= 400 ? connection.getErrorStream() :
-                        connection.getInputStream();
-                BufferedReader rd = new BufferedReader(new InputStreamReader(is));
-                String line;
-                StringBuilder response = new StringBuilder();
-                while ((line = rd.readLine()) != null) {
-                    response.append(line);
-                    response.append('\r');
-                }
-                rd.close();
-                JSONObject jsonObject = new JSONObject(response.toString());
-                if (type.equals("courses")) {
-                    JSONArray jsonArray = jsonObject.getJSONArray("STUDYROUTES");
-                    for (int i = 0; i < jsonArray.length(); i++) {
-                        JSONObject jsonobj = jsonArray.getJSONObject(i);
-                        content.add(new NatschoolContent(jsonobj.getInt("ID"),
-                                jsonobj.getString("NAME"),
-                                (jsonobj.has("IMAGEURL_24") ?
-                                        jsonobj.getString("IMAGEURL_24") : null)));
-                    }
-                }
-                if (type.equals("content")) {
-                    JSONArray jsonArray = jsonObject.getJSONArray("STUDYROUTE_CONTENT");
-                    for (int i = 0; i < jsonArray.length(); i++) {
-                        JSONObject jsonobj = jsonArray.getJSONObject(i);
-                        int type = jsonobj.getInt("ITEMTYPE");
-                        if (type == 0 || type == 1 || type == 3 || type == 10 || type == 11) {
-                            NatschoolContent natschoolContent =
-                                    new NatschoolContent(jsonobj.getInt("ID"),
-                                            jsonobj.getString("NAME"),
-                                            jsonobj.getInt("STUDYROUTE_ITEM_ID"), type,
-                                            (jsonobj.has("URL") ?
-                                                    jsonobj.getString("URL") : null));
-                            Download currentDownload = DownloadController.activeDownloads
-                                    .get(natschoolContent.id);
-                            if (currentDownload == null) {
-                                natschoolContent.downloading = false;
-                            } else {
-                                natschoolContent.downloading = true;
-                                natschoolContent.progress = currentDownload.getProgress();
-                                natschoolContent.progressString = currentDownload.getProgressString();
-                            }
-                            content.add(natschoolContent);
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                final ContentsFragment fragment = weakReference.get();
-                if (fragment == null) {
-                    return;
-                }
+        private void handleException(Exception e) {
+            final ContentsFragment fragment = weakReference.get();
+            if (fragment == null) {
+                return;
+            }
 
-                if (e instanceof JSONException) {
-                    Intent intent = new Intent(fragment.getActivity(), AuthenticationActivity.class);
-                    intent.putExtra("educator", false);
+            if (e instanceof JSONException) {
+                Intent intent = new Intent(fragment.getActivity(), AuthenticationActivity.class);
+                intent.putExtra("educator", false);
 
-                    if (fragment.getActivity() == null) {
-                        return;
-                    }
-                    fragment.getActivity().startActivity(intent);
-                    fragment.getActivity().finish();
+                if (fragment.getActivity() == null) {
                     return;
                 }
-                ApplicationLoader.runOnUIThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        final Activity activity = fragment.getActivity();
-                        if (activity == null) {
-                            return;
-                        }
-                        new AlertDialog.Builder(activity)
-                                .setTitle(activity.getResources()
-                                        .getString(R.string.alert_connection_title))
-                                .setMessage(activity.getResources()
-                                        .getString(R.string.alert_connection_description))
-                                .setPositiveButton(activity.getResources().getString(R.string.connect),
-                                        new DialogInterface.OnClickListener() {
-                                            public void onClick(DialogInterface dialog, int id) {
-                                                NatschoolFetcher.this.cancel(true);
-                                                new NatschoolFetcher(courseId, id, fragment)
-                                                        .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
-                                                dialog.cancel();
-                                            }
-                                        })
-                                .setNegativeButton(activity.getResources().getString(R.string.cancel),
-                                        new DialogInterface.OnClickListener() {
-                                            public void onClick(DialogInterface dialog, int id) {
-                                                dialog.cancel();
-                                            }
-                                        }).show();
+                fragment.getActivity().startActivity(intent);
+                fragment.getActivity().finish();
+                return;
+            }
+            ApplicationLoader.runOnUIThread(new Runnable() {
+                @Override
+                public void run() {
+                    final Activity activity = fragment.getActivity();
+                    if (activity == null) {
+                        return;
                     }
-                });
-            } finally {
-                if (connection != null) {
-                    connection.disconnect();
+                    new AlertDialog.Builder(activity)
+                            .setTitle(activity.getResources()
+                                    .getString(R.string.alert_connection_title))
+                            .setMessage(activity.getResources()
+                                    .getString(R.string.alert_connection_description))
+                            .setPositiveButton(activity.getResources().getString(R.string.connect),
+                                    new DialogInterface.OnClickListener() {
+                                        public void onClick(DialogInterface dialog, int id) {
+                                            NatschoolFetcher.this.cancel(true);
+                                            new NatschoolFetcher(courseId, id, fragment)
+                                                    .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+                                            dialog.cancel();
+                                        }
+                                    })
+                            .setNegativeButton(activity.getResources().getString(R.string.cancel),
+                                    new DialogInterface.OnClickListener() {
+                                        public void onClick(DialogInterface dialog, int id) {
+                                            dialog.cancel();
+                                        }
+                                    }).show();
                 }
-            }
+            });
         }
     }
 }
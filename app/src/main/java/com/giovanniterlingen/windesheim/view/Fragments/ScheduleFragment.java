@@ -53,7 +53,6 @@ import com.giovanniterlingen.windesheim.view.ScheduleActivity;
 
 import java.lang.ref.WeakReference;
 import java.util.Date;
-import java.util.concurrent.TimeUnit;
 
 /**
  * A schedule app for students and teachers of Windesheim
@@ -91,14 +90,12 @@ public class ScheduleFragment extends Fragment implements SwipeRefreshLayout.OnR
             SharedPreferences preferences = PreferenceManager
                     .getDefaultSharedPreferences(ApplicationLoader.applicationContext);
             long lastFetchTime = preferences.getLong(Constants.PREFS_LAST_FETCH_TIME, 0);
-            if (lastFetchTime == 0 || System.currentTimeMillis() - lastFetchTime >
-                    TimeUnit.DAYS.toMillis(1)) {
+            if (WindesheimAPIController.isFetchDue(lastFetchTime)) {
                 new ScheduleFetcher(this, true, true, false)
                         .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
                 return;
             }
-            new ScheduleFetcher(this, false, false,
-                    false).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            updateLessons();
         }
     }
 
@@ -110,9 +107,27 @@ public class ScheduleFragment extends Fragment implements SwipeRefreshLayout.OnR
 
     public void onVisible() {
         if (this.isMenuVisible() && this.isVisible()) {
+            updateLessons();
+        }
+    }
+
+    /**
+     * Shows the cached lessons right away, only hits the database when they are not cached
+     */
+    private void updateLessons() {
+        Lesson[] lessons = DatabaseController.getInstance().getCachedLessons(date);
+        if (lessons == null) {
             new ScheduleFetcher(this, false, false,
                     false).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            return;
+        }
+        if (adapter == null) {
+            adapter = new ScheduleAdapter((ScheduleActivity) getActivity(), lessons, date);
+            recyclerView.setAdapter(adapter);
+        } else {
+            adapter.updateLessons(lessons);
         }
+        updateLayout();
     }
 
     @Override
@@ -127,14 +142,34 @@ public class ScheduleFragment extends Fragment implements SwipeRefreshLayout.OnR
         recyclerView = viewGroup.findViewById(R.id.schedule_recyclerview);
         recyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
 
-        Lesson[] lessons = DatabaseController.getInstance().getLessons(date);
+        Lesson[] lessons = DatabaseController.getInstance().getCachedLessons(date);
+        if (lessons != null) {
+            showLessons(lessons);
+        } else {
+            spinner.setVisibility(View.VISIBLE);
+            DatabaseController.getLessonsAsync(date, new DatabaseController.Callback<Lesson[]>() {
+                @Override
+                public void onResult(Lesson[] result) {
+                    if (getView() == null) {
+                        return;
+                    }
+                    spinner.setVisibility(View.GONE);
+                    if (adapter == null) {
+                        showLessons(result);
+                    }
+                }
+            });
+        }
+        return viewGroup;
+    }
+
+    private void showLessons(Lesson[] lessons) {
         if (lessons.length > 0) {
             adapter = new ScheduleAdapter((ScheduleActivity) getActivity(), lessons, date);
             recyclerView.setAdapter(adapter);
         } else {
             emptyTextView.setVisibility(View.VISIBLE);
         }
-        return viewGroup;
     }
 
     private void alertConnectionProblem() {
@@ -234,6 +269,7 @@ public class ScheduleFragment extends Fragment implements SwipeRefreshLayout.OnR
                 }
             }
             lessons = DatabaseController.getInstance().getLessons(fragment.date);
+            ColorUtils.loadColors();
             return null;
         }
 
@@ -241,10 +277,6 @@ public class ScheduleFragment extends Fragment implements SwipeRefreshLayout.OnR
         protected void onPostExecute(Void param) {
             super.onPostExecute(param);
 
-            if (fetchData) {
-                ApplicationLoader.restartNotificationThread();
-            }
-
             ScheduleFragment fragment = weakReference.get();
             if (fragment == null) {
                 return;
@@ -63,15 +63,23 @@ public class HiddenLessonsActivity extends BaseActivity {
         }
 
         view = findViewById(R.id.coordinator_layout);
-        Lesson[] lessons = DatabaseController.getInstance().getHiddenLessons();
-        HiddenLessonsAdapter adapter = new HiddenLessonsAdapter(HiddenLessonsActivity.this, lessons);
-        RecyclerView recyclerView = findViewById(R.id.recyclerview);
+        final RecyclerView recyclerView = findViewById(R.id.recyclerview);
         if (recyclerView != null) {
             recyclerView.setLayoutManager(new LinearLayoutManager(this));
-            recyclerView.setAdapter(adapter);
-            if (adapter.getItemCount() == 0) {
-                showEmptyTextView();
-            }
+            DatabaseController.getHiddenLessonsAsync(new DatabaseController.Callback<Lesson[]>() {
+                @Override
+                public void onResult(Lesson[] lessons) {
+                    if (isFinishing()) {
+                        return;
+                    }
+                    HiddenLessonsAdapter adapter = new HiddenLessonsAdapter(
+                            HiddenLessonsActivity.this, lessons);
+                    recyclerView.setAdapter(adapter);
+                    if (adapter.getItemCount() == 0) {
+                        showEmptyTextView();
+                    }
+                }
+            });
         }
     }
 
@@ -33,6 +33,7 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.fragment.app.FragmentTransaction;
 
 import com.giovanniterlingen.windesheim.ApplicationLoader;
+import com.giovanniterlingen.windesheim.NotificationCenter;
 import com.giovanniterlingen.windesheim.R;
 import com.giovanniterlingen.windesheim.utils.TelemetryUtils;
 import com.giovanniterlingen.windesheim.view.Fragments.ContentsFragment;
@@ -43,7 +44,8 @@ import com.google.android.material.snackbar.Snackbar;
  *
  * @author Giovanni Terlingen
  */
-public class NatschoolActivity extends BaseActivity {
+public class NatschoolActivity extends BaseActivity
+        implements NotificationCenter.NotificationCenterDelegate {
 
     private View view;
 
@@ -68,11 +70,19 @@ public class NatschoolActivity extends BaseActivity {
     @Override
     protected void onResume() {
         super.onResume();
+        NotificationCenter.getInstance().addObserver(this,
+                NotificationCenter.folderDownloadUpdated);
+        NotificationCenter.getInstance().addObserver(this,
+                NotificationCenter.folderDownloadFailed);
         TelemetryUtils.getInstance().setCurrentScreen(this, "NatschoolActivity");
     }
 
     @Override
     protected void onPause() {
+        NotificationCenter.getInstance().removeObserver(this,
+                NotificationCenter.folderDownloadUpdated);
+        NotificationCenter.getInstance().removeObserver(this,
+                NotificationCenter.folderDownloadFailed);
         TelemetryUtils.getInstance().setCurrentScreen(this, null);
         super.onPause();
     }
@@ -98,4 +108,34 @@ public class NatschoolActivity extends BaseActivity {
                 .getString(R.string.no_app_found), Snackbar.LENGTH_SHORT);
         snackbar.show();
     }
+
+    @Override
+    public void didReceivedNotification(int id, Object... args) {
+        ActionBar actionBar = getSupportActionBar();
+        if (id == NotificationCenter.folderDownloadUpdated) {
+            int succeeded = (int) args[2];
+            int failed = (int) args[3];
+            int total = (int) args[4];
+            if (total == 0) {
+                Snackbar snackbar = Snackbar.make(view, getResources()
+                        .getString(R.string.folder_download_up_to_date), Snackbar.LENGTH_SHORT);
+                snackbar.show();
+            } else if (failed > 0 && succeeded + failed == total) {
+                Snackbar snackbar = Snackbar.make(view, getResources()
+                        .getString(R.string.folder_download_incomplete, failed, total),
+                        Snackbar.LENGTH_LONG);
+                snackbar.show();
+            }
+            if (actionBar != null) {
+                actionBar.setSubtitle(succeeded + failed < total ? getResources()
+                        .getString(R.string.folder_download_progress, succeeded, total) : null);
+            }
+            return;
+        }
+        if (id == NotificationCenter.folderDownloadFailed) {
+            Snackbar snackbar = Snackbar.make(view, getResources()
+                    .getString(R.string.connection_problem), Snackbar.LENGTH_SHORT);
+            snackbar.show();
+        }
+    }
 }
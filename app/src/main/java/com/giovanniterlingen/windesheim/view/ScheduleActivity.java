@@ -95,21 +95,7 @@ public class ScheduleActivity extends BaseActivity
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
-        if (!DatabaseController.getInstance().hasSchedules()) {
-            Intent intent = new Intent(ScheduleActivity.this, ChooseScheduleActivity.class);
-            startActivity(intent);
-            super.onCreate(savedInstanceState);
-            finish();
-            return;
-        }
         sharedPreferences = PreferenceManager.getDefaultSharedPreferences(ScheduleActivity.this);
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        if (sharedPreferences.getInt(Constants.PREFS_NOTIFICATIONS_TYPE, Constants
-                .NOTIFICATION_TYPE_NOT_SET) == Constants.NOTIFICATION_TYPE_NOT_SET) {
-            editor.putInt(Constants.PREFS_NOTIFICATIONS_TYPE,
-                    Constants.NOTIFICATION_TYPE_ALWAYS_ON);
-            editor.apply();
-        }
         super.onCreate(savedInstanceState);
 
         setContentView(R.layout.activity_schedule);
@@ -148,7 +134,34 @@ public class ScheduleActivity extends BaseActivity
         }
 
         view = findViewById(R.id.coordinator_layout);
-        setViewPager();
+        fragmentManager = getSupportFragmentManager();
+        mPager = findViewById(R.id.pager);
+
+        // The schedule fragments fetch lessons once shown, so wait until we know there is
+        // something to fetch
+        DatabaseController.hasSchedulesAsync(new DatabaseController.Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean hasSchedules) {
+                if (isFinishing()) {
+                    return;
+                }
+                if (!hasSchedules) {
+                    Intent intent = new Intent(ScheduleActivity.this,
+                            ChooseScheduleActivity.class);
+                    startActivity(intent);
+                    finish();
+                    return;
+                }
+                if (sharedPreferences.getInt(Constants.PREFS_NOTIFICATIONS_TYPE, Constants
+                        .NOTIFICATION_TYPE_NOT_SET) == Constants.NOTIFICATION_TYPE_NOT_SET) {
+                    SharedPreferences.Editor editor = sharedPreferences.edit();
+                    editor.putInt(Constants.PREFS_NOTIFICATIONS_TYPE,
+                            Constants.NOTIFICATION_TYPE_ALWAYS_ON);
+                    editor.apply();
+                }
+                setViewPager();
+            }
+        });
     }
 
     private void setupDrawerContent(NavigationView navigationView) {
@@ -200,9 +213,6 @@ public class ScheduleActivity extends BaseActivity
     }
 
     private void setViewPager() {
-        fragmentManager = getSupportFragmentManager();
-        mPager = findViewById(R.id.pager);
-
         Calendar calendar = TimeUtils.getCalendar();
         int calendarDayIndex = calendar.get(GregorianCalendar.DAY_OF_WEEK);
 
@@ -239,9 +249,12 @@ public class ScheduleActivity extends BaseActivity
     @Override
     public void onPause() {
         NotificationCenter.getInstance().removeObserver(this, NotificationCenter.scheduleReload);
-        onPauseMillis = System.currentTimeMillis();
-        onPauseWeekCount = mPager.getAdapter().getCount();
-        onPauseIndex = mPager.getCurrentItem();
+        NotificationCenter.getInstance().removeObserver(this, NotificationCenter.scheduleChanged);
+        if (mPager.getAdapter() != null) {
+            onPauseMillis = System.currentTimeMillis();
+            onPauseWeekCount = mPager.getAdapter().getCount();
+            onPauseIndex = mPager.getCurrentItem();
+        }
 
         TelemetryUtils.getInstance().setCurrentScreen(this, null);
         super.onPause();
@@ -250,6 +263,7 @@ public class ScheduleActivity extends BaseActivity
     @Override
     public void onResume() {
         NotificationCenter.getInstance().addObserver(this, NotificationCenter.scheduleReload);
+        NotificationCenter.getInstance().addObserver(this, NotificationCenter.scheduleChanged);
 
         if (showBottomBar()) {
             mBottomNavigation.setVisibility(View.VISIBLE);
@@ -257,7 +271,9 @@ public class ScheduleActivity extends BaseActivity
             mBottomNavigation.setVisibility(View.GONE);
         }
 
-        if (!DateUtils.isToday(onPauseMillis) || onPauseWeekCount != mPager.getAdapter().getCount()) {
+        // Without an adapter the schedules are still being checked, which sets the pager
+        if (mPager.getAdapter() != null && (!DateUtils.isToday(onPauseMillis) ||
+                onPauseWeekCount != mPager.getAdapter().getCount())) {
             setViewPager();
         }
         super.onResume();
@@ -345,7 +361,7 @@ public class ScheduleActivity extends BaseActivity
         super.onNewIntent(intent);
         if (intent.getExtras() != null && intent.hasExtra("notification")) {
             boolean fromNotification = intent.getExtras().getBoolean("notification");
-            if (fromNotification) {
+            if (fromNotification && mPager.getAdapter() != null) {
                 setViewPager();
             }
         }
@@ -393,7 +409,8 @@ public class ScheduleActivity extends BaseActivity
 
     @Override
     public void onBackPressed() {
-        if (currentDayIndex == -1 || mPager.getCurrentItem() == currentDayIndex) {
+        if (currentDayIndex == -1 || mPager.getAdapter() == null ||
+                mPager.getCurrentItem() == currentDayIndex) {
             super.onBackPressed();
             return;
         }
@@ -402,6 +419,16 @@ public class ScheduleActivity extends BaseActivity
 
     @Override
     public void didReceivedNotification(int id, Object... args) {
+        if (id == NotificationCenter.scheduleChanged) {
+            List<Fragment> fragments = fragmentManager.getFragments();
+            for (Fragment fragment : fragments) {
+                if (fragment != null && fragment.isVisible()) {
+                    ((ScheduleFragment) fragment).onVisible();
+                    return;
+                }
+            }
+            return;
+        }
         if (id == NotificationCenter.scheduleReload) {
             List<Fragment> fragments = fragmentManager.getFragments();
             for (Fragment fragment : fragments) {
@@ -456,6 +483,9 @@ public class ScheduleActivity extends BaseActivity
     }
 
     private void nearestMonday(boolean forward) {
+        if (mPager.getAdapter() == null) {
+            return;
+        }
         int currentIndex = mPager.getCurrentItem();
         int newIndex = (currentIndex / Constants.WEEKDAYS_COUNT + (forward ? 1 : -1)) *
                 Constants.WEEKDAYS_COUNT;
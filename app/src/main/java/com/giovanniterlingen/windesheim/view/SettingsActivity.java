@@ -57,6 +57,7 @@ import androidx.preference.PreferenceManager;
 import com.giovanniterlingen.windesheim.ApplicationLoader;
 import com.giovanniterlingen.windesheim.Constants;
 import com.giovanniterlingen.windesheim.R;
+import com.giovanniterlingen.windesheim.controllers.NatschoolController;
 import com.giovanniterlingen.windesheim.utils.CalendarUtils;
 import com.giovanniterlingen.windesheim.utils.CookieUtils;
 import com.giovanniterlingen.windesheim.utils.TelemetryUtils;
@@ -115,7 +116,7 @@ public class SettingsActivity extends BaseActivity {
                 }
                 editor.apply();
 
-                ApplicationLoader.restartNotificationThread();
+                ApplicationLoader.rescheduleNotifications();
                 updateIntervalTextView();
             }
         });
@@ -217,6 +218,7 @@ public class SettingsActivity extends BaseActivity {
             @Override
             public void onClick(View view) {
                 CookieUtils.deleteCookies();
+                NatschoolController.clearCache();
                 SharedPreferences.Editor editor = preferences.edit();
                 editor.remove(Constants.PREFS_USERNAME);
                 editor.remove(Constants.PREFS_PASSWORD);
@@ -340,7 +342,7 @@ public class SettingsActivity extends BaseActivity {
                     editor.putInt(Constants.PREFS_NOTIFICATIONS_TYPE, id);
                     editor.apply();
 
-                    ApplicationLoader.restartNotificationThread();
+                    ApplicationLoader.rescheduleNotifications();
                     updateLessonSwitch();
                     updateIntervalTextView();
                     dialog.dismiss();
@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2019 Giovanni Terlingen
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ **/
+package com.giovanniterlingen.windesheim;
+
+import com.giovanniterlingen.windesheim.models.Lesson;
+
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * A schedule app for students and teachers of Windesheim
+ *
+ * @author Giovanni Terlingen
+ */
+public class NotificationTimelineTest {
+
+    private static final long MINUTE = 60 * 1000;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY_START = 1570399200000L; // Monday 7 October 2019, 00:00 CEST
+    private static final int DAY_NUMBER = 18176;
+
+    private static final NotificationTimeline.TextFormatter FORMATTER =
+            new NotificationTimeline.TextFormatter() {
+                @Override
+                public String format(Lesson lesson, boolean multiple, long delta) {
+                    return lesson.getSubject() + (multiple ? "+" : "") + " in " + delta / MINUTE;
+                }
+            };
+
+    @Test
+    public void withoutLessonsOnlyClearsAtStartOfDay() {
+        NotificationTimeline timeline = build(Constants.NOTIFICATION_TYPE_ALWAYS_ON);
+
+        assertEquals(1, timeline.size());
+        assertEquals(DAY_START, timeline.get(0).time);
+        assertEquals(NotificationTimeline.TYPE_CLEAR, timeline.get(0).type);
+        assertNull(timeline.getStateAt(DAY_START - 1));
+        assertEquals(NotificationTimeline.TYPE_CLEAR, timeline.getStateAt(DAY_START).type);
+        assertEquals(-1, timeline.getNextTime(DAY_START, false));
+        assertEquals(-1, timeline.getNextTime(DAY_START, true));
+    }
+
+    @Test
+    public void countdownRoundsUpToWholeMinutes() {
+        // Starts half a minute past the hour, so no countdown moment is on a whole minute
+        long start = DAY_START + 9 * HOUR + 30 * 1000;
+        NotificationTimeline timeline = build(Constants.NOTIFICATION_TYPE_ALWAYS_ON,
+                lesson("A", start));
+
+        assertEquals("A in 541", timeline.getStateAt(DAY_START).text);
+        assertEquals("A in 541", timeline.getStateAt(DAY_START + 29 * 1000).text);
+        assertEquals("A in 540", timeline.getStateAt(DAY_START + 30 * 1000).text);
+        assertEquals("A in 2", timeline.getStateAt(start - MINUTE - 1).text);
+        assertEquals("A in 1", timeline.getStateAt(start - MINUTE).text);
+        assertEquals("A in 1", timeline.getStateAt(start - 1).text);
+        assertEquals(NotificationTimeline.TYPE_CLEAR, timeline.getStateAt(start).type);
+
+        // One entry per minute until the lesson starts, the lesson start and the clear
+        assertEquals(541 + 2, timeline.size());
+        assertEquals(DAY_START + 30 * 1000, timeline.getNextTime(DAY_START, false));
+    }
+
+    @Test
+    public void countdownOfNextLessonStartsWhenPreviousStarts() {
+        long first = DAY_START + 9 * HOUR;
+        long second = DAY_START + 11 * HOUR;
+        NotificationTimeline timeline = build(Constants.NOTIFICATION_TYPE_ALWAYS_ON,
+                lesson("A", first), lesson("B", second));
+
+        assertEquals("A in 1", timeline.getStateAt(first - 1).text);
+        assertEquals("B in 120", timeline.getStateAt(first).text);
+        assertEquals("B in 1", timeline.getStateAt(second - 1).text);
+        assertEquals(NotificationTimeline.TYPE_CLEAR, timeline.getStateAt(second).type);
+    }
+
+    @Test
+    public void simultaneousLessonsShareOneReminder() {
+        long start = DAY_START + 10 * HOUR;
+        NotificationTimeline timeline = build(Constants.NOTIFICATION_TYPE_30_MIN,
+                lesson("A", start), lesson("B", start));
+
+        assertEquals(3, timeline.size());
+        assertEntry(timeline.get(0), start - 30 * MINUTE, NotificationTimeline.TYPE_REMINDER);
+        assertEquals("A+ in 30", timeline.get(0).text);
+        assertEntry(timeline.get(1), start, NotificationTimeline.TYPE_LESSON_START);
+        assertEntry(timeline.get(2), start, NotificationTimeline.TYPE_CLEAR);
+    }
+
+    @Test
+    public void remindersOfLaterLessonsAreSortedBeforeEarlierStarts() {
+        long first = DAY_START + 8 * HOUR + 30 * MINUTE;
+        long second = DAY_START + 9 * HOUR;
+        NotificationTimeline timeline = build(Constants.NOTIFICATION_TYPE_1_HOUR,
+                lesson("A", first), lesson("B", second));
+
+        assertEquals(5, timeline.size());
+        assertEntry(timeline.get(0), first - HOUR, NotificationTimeline.TYPE_REMINDER);
+        assertEntry(timeline.get(1), second - HOUR, NotificationTimeline.TYPE_REMINDER);
+        assertEntry(timeline.get(2), first, NotificationTimeline.TYPE_LESSON_START);
+        assertEntry(timeline.get(3), second, NotificationTimeline.TYPE_LESSON_START);
+        assertEntry(timeline.get(4), second, NotificationTimeline.TYPE_CLEAR);
+
+        assertEquals(second - HOUR, timeline.getNextTime(first - HOUR, true));
+        assertEquals(first, timeline.getNextTime(first - HOUR, false));
+        assertEquals(-1, timeline.getNextTime(second - HOUR, true));
+        // Reminder modes have no countdown, nothing is shown until the clear
+        assertNull(timeline.getStateAt(first));
+        assertEquals(NotificationTimeline.TYPE_CLEAR, timeline.getStateAt(second).type);
+    }
+
+    @Test
+    public void remindersBeforeStartOfDayAreSkipped() {
+        long start = DAY_START + 30 * MINUTE;
+        NotificationTimeline timeline = build(Constants.NOTIFICATION_TYPE_1_HOUR,
+                lesson("A", start));
+
+        assertEquals(-1, timeline.getNextTime(DAY_START - 1, true));
+        assertEquals(start, timeline.getNextTime(DAY_START - 1, false));
+    }
+
+    @Test
+    public void offHasNoRemindersOrCountdown() {
+        long start = DAY_START + 10 * HOUR;
+        NotificationTimeline timeline = build(Constants.NOTIFICATION_TYPE_OFF,
+                lesson("A", start));
+
+        assertEquals(2, timeline.size());
+        assertEntry(timeline.get(0), start, NotificationTimeline.TYPE_LESSON_START);
+        assertEntry(timeline.get(1), start, NotificationTimeline.TYPE_CLEAR);
+    }
+
+    @Test
+    public void indexAfterSkipsEntriesAtTheGivenTime() {
+        long first = DAY_START + 8 * HOUR;
+        long second = DAY_START + 9 * HOUR;
+        NotificationTimeline timeline = build(Constants.NOTIFICATION_TYPE_15_MIN,
+                lesson("A", first), lesson("B", second));
+
+        assertEquals(0, timeline.indexAfter(DAY_START));
+        assertEquals(0, timeline.indexAfter(first - 15 * MINUTE - 1));
+        assertEquals(1, timeline.indexAfter(first - 15 * MINUTE));
+        assertEquals(2, timeline.indexAfter(first));
+        assertEquals(timeline.size(), timeline.indexAfter(second));
+        assertEquals(timeline.size(), timeline.indexAfter(Long.MAX_VALUE));
+    }
+
+    private static NotificationTimeline build(int notificationType, Lesson... lessons) {
+        return NotificationTimeline.build(DAY_NUMBER, DAY_START, lessons, notificationType,
+                FORMATTER);
+    }
+
+    private static Lesson lesson(String subject, long startTime) {
+        Lesson lesson = new Lesson();
+        lesson.setSubject(subject);
+        lesson.setStartTime(new Date(startTime));
+        lesson.setEndTime(new Date(startTime + 90 * MINUTE));
+        lesson.setVisible(true);
+        return lesson;
+    }
+
+    private static void assertEntry(NotificationTimeline.Entry entry, long time, int type) {
+        assertEquals(time, entry.time);
+        assertEquals(type, entry.type);
+    }
+}
@@ -0,0 +1,471 @@
+/**
+ * Copyright (c) 2019 Giovanni Terlingen
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ **/
+package com.giovanniterlingen.windesheim;
+
+import com.giovanniterlingen.windesheim.controllers.WindesheimAPIController;
+import com.giovanniterlingen.windesheim.models.Lesson;
+import com.giovanniterlingen.windesheim.utils.TimeUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A schedule app for students and teachers of Windesheim
+ * <p>
+ * Simulates weeks of alarms, notifications and schedule fetches against a fake clock. The
+ * simulated device sleeps at night, so alarms that don't wake it up are delivered late.
+ *
+ * @author Giovanni Terlingen
+ */
+public class SchedulerSimulationTest {
+
+    private static final long MINUTE = 60 * 1000;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+    private static final int AWAKE_FROM_HOUR = 8;
+    private static final int AWAKE_UNTIL_HOUR = 23;
+    private static final int WEEKS = 3;
+
+    private final FakeClock clock = new FakeClock();
+    private TimeZone defaultTimeZone;
+    private long firstMonday;
+
+    @Before
+    public void setUp() {
+        defaultTimeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("Europe/Amsterdam"));
+        TimeUtils.setClock(clock);
+        // Three weeks that include the end of daylight saving time on 27 October
+        firstMonday = at(2019, Calendar.OCTOBER, 7, 0, 0);
+        clock.time = firstMonday;
+    }
+
+    @After
+    public void tearDown() {
+        TimeUtils.setClock(null);
+        TimeZone.setDefault(defaultTimeZone);
+    }
+
+    @Test
+    public void remindersArePostedOnTime() {
+        int[] notificationTypes = {Constants.NOTIFICATION_TYPE_1_HOUR,
+                Constants.NOTIFICATION_TYPE_30_MIN, Constants.NOTIFICATION_TYPE_15_MIN};
+        long[] offsets = {HOUR, 30 * MINUTE, 15 * MINUTE};
+        for (int i = 0; i < notificationTypes.length; i++) {
+            clock.time = firstMonday;
+            Device device = new Device(notificationTypes[i]);
+            device.start();
+            device.runUntil(firstMonday + WEEKS * 7 * DAY);
+
+            List<Long> expected = new ArrayList<>();
+            for (long start : getLessonStarts()) {
+                expected.add(start - offsets[i]);
+            }
+            assertEquals(expected, device.reminderTimes);
+        }
+    }
+
+    @Test
+    public void remindersStayUntilTheLastLessonStarts() {
+        Device device = new Device(Constants.NOTIFICATION_TYPE_30_MIN);
+        device.start();
+
+        device.runUntil(firstMonday + 8 * HOUR + 29 * MINUTE);
+        assertEquals("A in 30", device.shown);
+        device.runUntil(firstMonday + 10 * HOUR + 29 * MINUTE);
+        assertEquals("B in 30", device.shown);
+        device.runUntil(firstMonday + 10 * HOUR + 30 * MINUTE);
+        assertNull(device.shown);
+    }
+
+    @Test
+    public void countdownIsUpToDateWhileAwake() {
+        Device device = new Device(Constants.NOTIFICATION_TYPE_ALWAYS_ON);
+        device.start();
+
+        for (long start : getLessonStarts()) {
+            long from = Math.max(start - 2 * HOUR, TimeUtils.getStartOfDay(start) +
+                    AWAKE_FROM_HOUR * HOUR);
+            for (long time = from; time < start; time += 7 * MINUTE) {
+                device.runUntil(time);
+                long minutes = (start - time + MINUTE - 1) / MINUTE;
+                assertTrue(device.shown, device.shown.endsWith(" in " + minutes));
+                assertTrue(device.shownOngoing);
+            }
+        }
+    }
+
+    @Test
+    public void wakeupsPerDayDependOnTheMode() {
+        // Reminder modes wake up for every reminder and for the start of each next day
+        Device reminders = new Device(Constants.NOTIFICATION_TYPE_1_HOUR);
+        reminders.start();
+        reminders.runUntil(firstMonday + WEEKS * 7 * DAY - 1);
+        for (int day = 0; day < WEEKS * 7; day++) {
+            int expected = (day % 7 < 5 ? 2 : 0) + (day > 0 ? 1 : 0);
+            assertEquals("day " + day, expected, reminders.getWakeups(day));
+        }
+
+        // The countdown is only updated while the device is awake anyway
+        clock.time = firstMonday;
+        Device countdown = new Device(Constants.NOTIFICATION_TYPE_ALWAYS_ON);
+        countdown.start();
+        countdown.runUntil(firstMonday + WEEKS * 7 * DAY - 1);
+        for (int day = 0; day < WEEKS * 7; day++) {
+            assertEquals("day " + day, 0, countdown.getWakeups(day));
+        }
+    }
+
+    @Test
+    public void noAlarmsWhenNotificationsAreOff() {
+        int[] notificationTypes = {Constants.NOTIFICATION_TYPE_OFF,
+                Constants.NOTIFICATION_TYPE_NOT_SET};
+        for (int notificationType : notificationTypes) {
+            clock.time = firstMonday;
+            Device device = new Device(notificationType);
+            device.start();
+
+            assertEquals(-1, device.updateAlarm);
+            assertEquals(-1, device.reminderAlarm);
+            device.runUntil(firstMonday + WEEKS * 7 * DAY);
+            assertEquals(0, device.dispatches);
+            assertNull(device.shown);
+        }
+    }
+
+    @Test
+    public void processStartedByReminderKeepsTheReminder() {
+        Device device = new Device(Constants.NOTIFICATION_TYPE_30_MIN);
+        device.start();
+        device.runUntil(firstMonday + 7 * HOUR);
+
+        // The process is killed, the reminder alarm starts a new one
+        device.killProcess();
+        device.runUntil(firstMonday + 8 * HOUR + 29 * MINUTE);
+        assertEquals("A in 30", device.shown);
+        assertEquals(1, device.reminderTimes.size());
+        assertEquals(0, device.clears);
+    }
+
+    @Test
+    public void rebuildKeepsTheReminder() {
+        Device device = new Device(Constants.NOTIFICATION_TYPE_15_MIN);
+        device.start();
+        device.runUntil(firstMonday + 8 * HOUR + 20 * MINUTE);
+        assertEquals("A in 15", device.shown);
+
+        device.dispatcher.rebuild(clock.time);
+        assertEquals("A in 15", device.shown);
+        assertEquals(1, device.reminderTimes.size());
+    }
+
+    @Test
+    public void rebuildClearsCountdownOfPreviousMode() {
+        Device device = new Device(Constants.NOTIFICATION_TYPE_ALWAYS_ON);
+        device.start();
+        device.runUntil(firstMonday + 8 * HOUR + 10 * MINUTE);
+        assertTrue(device.shownOngoing);
+
+        device.notificationType = Constants.NOTIFICATION_TYPE_1_HOUR;
+        device.dispatcher.rebuild(clock.time);
+        assertNull(device.shown);
+        // The reminder of the second lesson is still coming
+        assertEquals(firstMonday + 9 * HOUR + 30 * MINUTE, device.reminderAlarm);
+    }
+
+    @Test
+    public void scheduleIsFetchedOncePerDayWhenOpenedOften() {
+        long lastFetchTime = 0;
+        List<Long> fetchTimes = new ArrayList<>();
+        for (long day = firstMonday; day < firstMonday + WEEKS * 7 * DAY; day += DAY) {
+            for (int hour = AWAKE_FROM_HOUR; hour < AWAKE_UNTIL_HOUR; hour += 3) {
+                clock.time = day + hour * HOUR;
+                if (WindesheimAPIController.isFetchDue(lastFetchTime)) {
+                    lastFetchTime = clock.time;
+                    fetchTimes.add(clock.time);
+                }
+            }
+        }
+        // Never twice a day, but also never two days without fetching
+        assertEquals(firstMonday + AWAKE_FROM_HOUR * HOUR, (long) fetchTimes.get(0));
+        for (int i = 1; i < fetchTimes.size(); i++) {
+            long interval = fetchTimes.get(i) - fetchTimes.get(i - 1);
+            assertTrue(interval > DAY && interval < 2 * DAY);
+        }
+        assertTrue(fetchTimes.size() > WEEKS * 7 / 2);
+    }
+
+    @Test
+    public void scheduleIsFetchedWhenOpenedAfterADay() {
+        clock.time = firstMonday + 12 * HOUR;
+        assertTrue(WindesheimAPIController.isFetchDue(0));
+        long lastFetchTime = clock.time;
+
+        clock.time += DAY;
+        assertTrue(!WindesheimAPIController.isFetchDue(lastFetchTime));
+        clock.time += 1;
+        assertTrue(WindesheimAPIController.isFetchDue(lastFetchTime));
+    }
+
+    /**
+     * Lessons A at 8:30 and B at 10:30 on weekdays, on Wednesday C starts together with A
+     */
+    private static Lesson[] getLessons(long dayStart) {
+        Calendar calendar = TimeUtils.getCalendar();
+        calendar.setTimeInMillis(dayStart);
+        int dayOfWeek = calendar.get(Calendar.DAY_OF_WEEK);
+        if (dayOfWeek == Calendar.SATURDAY || dayOfWeek == Calendar.SUNDAY) {
+            return new Lesson[0];
+        }
+        List<Lesson> lessons = new ArrayList<>();
+        lessons.add(lesson("A", dayStart + 8 * HOUR + 30 * MINUTE));
+        if (dayOfWeek == Calendar.WEDNESDAY) {
+            lessons.add(lesson("C", dayStart + 8 * HOUR + 30 * MINUTE));
+        }
+        lessons.add(lesson("B", dayStart + 10 * HOUR + 30 * MINUTE));
+        return lessons.toArray(new Lesson[0]);
+    }
+
+    /**
+     * @return the distinct lesson start times of the simulated weeks
+     */
+    private List<Long> getLessonStarts() {
+        List<Long> starts = new ArrayList<>();
+        for (long day = firstMonday; day < firstMonday + WEEKS * 7 * DAY;
+             day = TimeUtils.getStartOfNextDay(day)) {
+            for (Lesson lesson : getLessons(day)) {
+                long start = lesson.getStartTime().getTime();
+                if (starts.isEmpty() || starts.get(starts.size() - 1) != start) {
+                    starts.add(start);
+                }
+            }
+        }
+        return starts;
+    }
+
+    private static Lesson lesson(String subject, long startTime) {
+        Lesson lesson = new Lesson();
+        lesson.setSubject(subject);
+        lesson.setStartTime(new Date(startTime));
+        lesson.setEndTime(new Date(startTime + 90 * MINUTE));
+        lesson.setVisible(true);
+        return lesson;
+    }
+
+    private static long at(int year, int month, int day, int hour, int minute) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month, day, hour, minute);
+        return calendar.getTimeInMillis();
+    }
+
+    private static class FakeClock implements TimeUtils.Clock {
+
+        long time;
+
+        @Override
+        public long currentTimeMillis() {
+            return time;
+        }
+    }
+
+    /**
+     * Stands in for the alarm manager, the notification manager and the app process
+     */
+    private class Device implements NotificationDispatcher.Target {
+
+        final List<Long> reminderTimes = new ArrayList<>();
+        final List<Long> wakeupTimes = new ArrayList<>();
+        int notificationType;
+        NotificationDispatcher dispatcher;
+        long updateAlarm = -1;
+        boolean updateWakeup;
+        long reminderAlarm = -1;
+        String shown;
+        boolean shownOngoing;
+        int dispatches;
+        int clears;
+        private boolean processAlive;
+
+        Device(int notificationType) {
+            this.notificationType = notificationType;
+        }
+
+        void start() {
+            processAlive = true;
+            dispatcher = new NotificationDispatcher(this);
+            dispatcher.init(clock.time);
+        }
+
+        void killProcess() {
+            processAlive = false;
+        }
+
+        /**
+         * Delivers every alarm that goes off until the given time, then sets the clock to it
+         */
+        void runUntil(long end) {
+            while (true) {
+                long reminderDelivery = reminderAlarm;
+                long updateDelivery = getDeliveryTime(updateAlarm, updateWakeup);
+                long next = min(reminderDelivery, updateDelivery);
+                if (next == -1 || next > end) {
+                    break;
+                }
+                clock.time = next;
+                if (next == reminderDelivery) {
+                    deliver(true, reminderAlarm);
+                } else {
+                    deliver(updateWakeup, updateAlarm);
+                }
+            }
+            clock.time = end;
+        }
+
+        private void deliver(boolean wakeup, long alarmTime) {
+            if (alarmTime == reminderAlarm) {
+                reminderAlarm = -1;
+            } else {
+                updateAlarm = -1;
+            }
+            if (wakeup) {
+                wakeupTimes.add(clock.time);
+            }
+            if (!processAlive) {
+                // Like ApplicationLoader, a new process initializes before the alarm runs
+                start();
+            }
+            dispatches++;
+            dispatcher.dispatch(clock.time, alarmTime);
+        }
+
+        /**
+         * Alarms that don't wake the device up wait until it is used again, or until a
+         * wakeup alarm wakes it up anyway
+         */
+        private long getDeliveryTime(long alarmTime, boolean wakeup) {
+            if (alarmTime == -1 || wakeup || isAwake(alarmTime)) {
+                return alarmTime;
+            }
+            long wakeUpTime = TimeUtils.getStartOfDay(alarmTime) + AWAKE_FROM_HOUR * HOUR;
+            if (wakeUpTime < alarmTime) {
+                wakeUpTime = TimeUtils.getStartOfNextDay(alarmTime) + AWAKE_FROM_HOUR * HOUR;
+            }
+            if (reminderAlarm >= alarmTime && reminderAlarm < wakeUpTime) {
+                return reminderAlarm;
+            }
+            return wakeUpTime;
+        }
+
+        private boolean isAwake(long time) {
+            long timeOfDay = time - TimeUtils.getStartOfDay(time);
+            return timeOfDay >= AWAKE_FROM_HOUR * HOUR && timeOfDay < AWAKE_UNTIL_HOUR * HOUR;
+        }
+
+        int getWakeups(int day) {
+            long dayStart = firstMonday;
+            for (int i = 0; i < day; i++) {
+                dayStart = TimeUtils.getStartOfNextDay(dayStart);
+            }
+            long dayEnd = TimeUtils.getStartOfNextDay(dayStart);
+            int count = 0;
+            for (long time : wakeupTimes) {
+                if (time >= dayStart && time < dayEnd) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public NotificationTimeline buildTimeline(long now) {
+            long dayStart = TimeUtils.getStartOfDay(now);
+            return NotificationTimeline.build(TimeUtils.getDayNumber(new Date(now)), dayStart,
+                    getLessons(dayStart), notificationType,
+                    new NotificationTimeline.TextFormatter() {
+                        @Override
+                        public String format(Lesson lesson, boolean multiple, long delta) {
+                            return lesson.getSubject() + " in " + delta / MINUTE;
+                        }
+                    });
+        }
+
+        @Override
+        public void showCountdown(String text) {
+            shown = text;
+            shownOngoing = true;
+        }
+
+        @Override
+        public void showReminder(String text) {
+            reminderTimes.add(clock.time);
+            shown = text;
+            shownOngoing = false;
+        }
+
+        @Override
+        public void clearNotification(boolean ongoingOnly) {
+            if (shown == null || (ongoingOnly && !shownOngoing)) {
+                return;
+            }
+            clears++;
+            shown = null;
+            shownOngoing = false;
+        }
+
+        @Override
+        public void lessonStarted() {
+        }
+
+        @Override
+        public void setUpdateAlarm(long time, boolean wakeup) {
+            updateAlarm = time;
+            updateWakeup = wakeup;
+        }
+
+        @Override
+        public void setReminderAlarm(long time) {
+            reminderAlarm = time;
+        }
+
+        private long min(long a, long b) {
+            if (a == -1) {
+                return b;
+            }
+            return b == -1 ? a : Math.min(a, b);
+        }
+    }
+}
@@ -0,0 +1,481 @@
+/**
+ * Copyright (c) 2019 Giovanni Terlingen
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ **/
+package com.giovanniterlingen.windesheim.controllers;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * A schedule app for students and teachers of Windesheim
+ * <p>
+ * Runs the download engine against a local stand-in for the ELO file server, which can
+ * drop connections halfway and change the file between attempts.
+ *
+ * @author Giovanni Terlingen
+ */
+public class DownloadEngineTest {
+
+    private static final String ETAG = "\"v1\"";
+    private static final String LAST_MODIFIED = "Mon, 07 Oct 2019 10:00:00 GMT";
+    private static final int LARGE_FILE_SIZE = 9 * 1024 * 1024;
+    private static final DownloadEngine.Listener LISTENER = new DownloadEngine.Listener() {
+        @Override
+        public void onProgress(long downloaded, long total) {
+        }
+    };
+
+    private StandInServer server;
+    private File directory;
+    private File destination;
+    private File partialDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StandInServer();
+        directory = File.createTempFile("download", "");
+        assertTrue(directory.delete() && directory.mkdir());
+        destination = new File(directory, "slides.pdf");
+        partialDirectory = new File(directory, "downloads");
+        assertTrue(partialDirectory.mkdir());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        delete(directory);
+    }
+
+    @Test
+    public void downloadsWholeFile() throws IOException {
+        server.setFile(randomBytes(100 * 1024, 1), ETAG, null);
+
+        createEngine().download(LISTENER);
+
+        assertArrayEquals(server.content, readFile(destination));
+        assertEquals(0, partialDirectory.list().length);
+        assertNull(server.getRequest(0).ifRange);
+    }
+
+    @Test
+    public void resumesWithIfRange() throws IOException {
+        server.setFile(randomBytes(200 * 1024, 2), ETAG, null);
+        server.failNextResponses(1, 50000);
+
+        downloadAndExpectFailure();
+        createEngine().download(LISTENER);
+
+        assertArrayEquals(server.content, readFile(destination));
+        StandInServer.Request resume = server.getRequest(1);
+        assertEquals("bytes=50000-", resume.range);
+        assertEquals(ETAG, resume.ifRange);
+        assertEquals(206, resume.status);
+    }
+
+    @Test
+    public void resumesWithLastModifiedWhenETagIsWeak() throws IOException {
+        server.setFile(randomBytes(200 * 1024, 3), "W/" + ETAG, LAST_MODIFIED);
+        server.failNextResponses(1, 50000);
+
+        downloadAndExpectFailure();
+        createEngine().download(LISTENER);
+
+        assertArrayEquals(server.content, readFile(destination));
+        assertEquals(LAST_MODIFIED, server.getRequest(1).ifRange);
+    }
+
+    @Test
+    public void restartsWhenFileChanged() throws IOException {
+        server.setFile(randomBytes(200 * 1024, 4), ETAG, null);
+        server.failNextResponses(1, 50000);
+
+        downloadAndExpectFailure();
+        server.setFile(randomBytes(150 * 1024, 5), "\"v2\"", null);
+        createEngine().download(LISTENER);
+
+        assertArrayEquals(server.content, readFile(destination));
+        assertEquals(ETAG, server.getRequest(1).ifRange);
+        assertEquals(200, server.getRequest(1).status);
+    }
+
+    @Test
+    public void startsOverWithoutValidator() throws IOException {
+        server.setFile(randomBytes(200 * 1024, 6), null, null);
+        server.failNextResponses(1, 50000);
+
+        downloadAndExpectFailure();
+        createEngine().download(LISTENER);
+
+        assertArrayEquals(server.content, readFile(destination));
+        assertEquals("bytes=0-", server.getRequest(1).range);
+        assertNull(server.getRequest(1).ifRange);
+    }
+
+    @Test
+    public void restartsWhenRangesAreNotSupported() throws IOException {
+        server.setFile(randomBytes(200 * 1024, 7), ETAG, null);
+        server.supportsRanges = false;
+        server.failNextResponses(1, 50000);
+
+        downloadAndExpectFailure();
+        createEngine().download(LISTENER);
+
+        assertArrayEquals(server.content, readFile(destination));
+        assertEquals(200, server.getRequest(1).status);
+    }
+
+    @Test
+    public void splitsLargeFilesIntoSegments() throws IOException {
+        server.setFile(randomBytes(LARGE_FILE_SIZE, 8), ETAG, null);
+
+        createEngine().download(LISTENER);
+
+        assertArrayEquals(server.content, readFile(destination));
+        List<String> ranges = new ArrayList<>();
+        for (int i = 1; i < server.getRequestCount(); i++) {
+            ranges.add(server.getRequest(i).range);
+            assertEquals(ETAG, server.getRequest(i).ifRange);
+        }
+        assertEquals(3, ranges.size());
+        assertTrue(ranges.contains("bytes=0-3145727"));
+        assertTrue(ranges.contains("bytes=3145728-6291455"));
+        assertTrue(ranges.contains("bytes=6291456-9437183"));
+    }
+
+    @Test
+    public void resumesSegments() throws IOException {
+        server.setFile(randomBytes(LARGE_FILE_SIZE, 9), ETAG, null);
+        // The first segment request is dropped, which stops the other segments as well
+        server.failNextSegmentResponses(1, 1024 * 1024);
+
+        downloadAndExpectFailure();
+        int firstAttemptRequests = server.getRequestCount();
+        long firstAttemptBytes = server.getBytesSent();
+        createEngine().download(LISTENER);
+
+        assertArrayEquals(server.content, readFile(destination));
+        assertTrue(server.getBytesSent() - firstAttemptBytes < LARGE_FILE_SIZE);
+        for (int i = firstAttemptRequests; i < server.getRequestCount(); i++) {
+            assertEquals(ETAG, server.getRequest(i).ifRange);
+            assertEquals(206, server.getRequest(i).status);
+        }
+    }
+
+    @Test
+    public void restartsSegmentsWhenFileChanged() throws IOException {
+        server.setFile(randomBytes(LARGE_FILE_SIZE, 10), ETAG, null);
+        server.failNextSegmentResponses(1, 1024 * 1024);
+
+        downloadAndExpectFailure();
+        int firstAttemptRequests = server.getRequestCount();
+        server.setFile(randomBytes(LARGE_FILE_SIZE, 11), "\"v2\"", null);
+        createEngine().download(LISTENER);
+
+        assertArrayEquals(server.content, readFile(destination));
+        assertEquals(0, partialDirectory.list().length);
+        assertEquals(ETAG, server.getRequest(firstAttemptRequests).ifRange);
+        assertEquals(200, server.getRequest(firstAttemptRequests).status);
+    }
+
+    @Test
+    public void cancelledDownloadCanBeDeleted() throws IOException {
+        server.setFile(randomBytes(200 * 1024, 12), ETAG, null);
+        final DownloadEngine engine = createEngine();
+        engine.cancel();
+        try {
+            engine.download(LISTENER);
+            fail("A cancelled download should not complete");
+        } catch (IOException e) {
+            // Expected
+        }
+        engine.deletePartialFile();
+
+        assertFalse(destination.exists());
+        assertEquals(0, partialDirectory.list().length);
+    }
+
+    private DownloadEngine createEngine() throws IOException {
+        return new DownloadEngine(new URL("http://127.0.0.1:" + server.getPort() +
+                "/slides.pdf"), "session=test", destination, partialDirectory);
+    }
+
+    private void downloadAndExpectFailure() {
+        try {
+            createEngine().download(LISTENER);
+            fail("The dropped connection should fail the download");
+        } catch (IOException e) {
+            // Expected, the partial file is kept
+        }
+        assertFalse(destination.exists());
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            int offset = 0;
+            int read;
+            while (offset < bytes.length &&
+                    (read = inputStream.read(bytes, offset, bytes.length - offset)) != -1) {
+                offset += read;
+            }
+        } finally {
+            inputStream.close();
+        }
+        return bytes;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Serves one file over HTTP/1.1 with ranges, If-Range and optionally dropped connections
+     */
+    private static class StandInServer implements Runnable {
+
+        private final ServerSocket serverSocket;
+        private final List<Request> requests = new ArrayList<>();
+        volatile byte[] content;
+        volatile String eTag;
+        volatile String lastModified;
+        volatile boolean supportsRanges = true;
+        private int failuresLeft;
+        private boolean failSegmentsOnly;
+        private int failAfter;
+        private long bytesSent;
+
+        StandInServer() throws IOException {
+            serverSocket = new ServerSocket(0);
+            Thread thread = new Thread(this, "StandInServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        void setFile(byte[] content, String eTag, String lastModified) {
+            this.content = content;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Closes the connection of the next responses after the given number of bytes
+         */
+        synchronized void failNextResponses(int count, int after) {
+            failuresLeft = count;
+            failAfter = after;
+            failSegmentsOnly = false;
+        }
+
+        /**
+         * Like failNextResponses, but only for requests of a closed range
+         */
+        synchronized void failNextSegmentResponses(int count, int after) {
+            failNextResponses(count, after);
+            failSegmentsOnly = true;
+        }
+
+        synchronized Request getRequest(int index) {
+            return requests.get(index);
+        }
+
+        synchronized int getRequestCount() {
+            return requests.size();
+        }
+
+        synchronized long getBytesSent() {
+            return bytesSent;
+        }
+
+        void close() throws IOException {
+            serverSocket.close();
+        }
+
+        @Override
+        public void run() {
+            while (!serverSocket.isClosed()) {
+                final Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    return;
+                }
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            serve(socket);
+                        } catch (IOException e) {
+                            // The client went away, e.g. because the download was stopped
+                        } finally {
+                            try {
+                                socket.close();
+                            } catch (IOException e) {
+                                //
+                            }
+                        }
+                    }
+                });
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+
+        private void serve(Socket socket) throws IOException {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), "ISO-8859-1"));
+            if (reader.readLine() == null) {
+                return;
+            }
+            Map<String, String> headers = new HashMap<>();
+            String line;
+            while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                        line.substring(colon + 1).trim());
+            }
+            byte[] content = this.content;
+            Request request = new Request(headers.get("range"), headers.get("if-range"));
+
+            long start = 0;
+            long end = content.length - 1;
+            StringBuilder response = new StringBuilder();
+            boolean partial = false;
+            if (request.range != null && supportsRanges && (request.ifRange == null ||
+                    request.ifRange.equals(eTag) || request.ifRange.equals(lastModified))) {
+                String[] bounds = request.range.substring("bytes=".length()).split("-", -1);
+                start = Long.parseLong(bounds[0]);
+                if (!bounds[1].isEmpty()) {
+                    end = Math.min(end, Long.parseLong(bounds[1]));
+                }
+                if (start >= content.length) {
+                    request.status = 416;
+                    response.append("HTTP/1.1 416 Range Not Satisfiable\r\n")
+                            .append("Content-Range: bytes */").append(content.length)
+                            .append("\r\nContent-Length: 0\r\n");
+                    record(request);
+                    writeHead(socket.getOutputStream(), response);
+                    return;
+                }
+                partial = true;
+            }
+            request.status = partial ? 206 : 200;
+            response.append(partial ? "HTTP/1.1 206 Partial Content\r\n" : "HTTP/1.1 200 OK\r\n");
+            if (partial) {
+                response.append("Content-Range: bytes ").append(start).append('-').append(end)
+                        .append('/').append(content.length).append("\r\n");
+            }
+            response.append("Content-Length: ").append(end - start + 1).append("\r\n");
+            if (eTag != null) {
+                response.append("ETag: ").append(eTag).append("\r\n");
+            }
+            if (lastModified != null) {
+                response.append("Last-Modified: ").append(lastModified).append("\r\n");
+            }
+            long length = end - start + 1;
+            synchronized (this) {
+                boolean segment = request.range != null && !request.range.endsWith("-");
+                if (failuresLeft > 0 && (!failSegmentsOnly || segment)) {
+                    failuresLeft--;
+                    length = Math.min(length, failAfter);
+                }
+            }
+            record(request);
+            OutputStream outputStream = socket.getOutputStream();
+            writeHead(outputStream, response);
+            int chunk = 64 * 1024;
+            for (long offset = 0; offset < length; offset += chunk) {
+                int count = (int) Math.min(chunk, length - offset);
+                outputStream.write(content, (int) (start + offset), count);
+                synchronized (this) {
+                    bytesSent += count;
+                }
+            }
+            outputStream.flush();
+        }
+
+        private void writeHead(OutputStream outputStream, StringBuilder response)
+                throws IOException {
+            response.append("Connection: close\r\n\r\n");
+            outputStream.write(response.toString().getBytes("ISO-8859-1"));
+        }
+
+        private synchronized void record(Request request) {
+            requests.add(request);
+        }
+
+        static class Request {
+
+            final String range;
+            final String ifRange;
+            int status;
+
+            Request(String range, String ifRange) {
+                this.range = range;
+                this.ifRange = ifRange;
+            }
+        }
+    }
+}